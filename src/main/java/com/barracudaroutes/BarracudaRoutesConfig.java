@@ -24,6 +24,13 @@ public interface BarracudaRoutesConfig extends Config
 	)
 	String routeAppearanceSection = "routeAppearanceSection";
 
+	@ConfigSection(
+		position = 2,
+		name = "Route storage",
+		description = "Settings for how routes are saved to disk"
+	)
+	String routeStorageSection = "routeStorageSection";
+
 	@ConfigItem(
 		keyName = "hideDistance",
 		name = "Hide Distance",
@@ -115,4 +122,28 @@ public interface BarracudaRoutesConfig extends Config
 	{
 		return true;
 	}
+
+	@ConfigItem(
+		keyName = "keepRouteBackups",
+		name = "Keep Backups",
+		description = "Keep the previous version of each route file, used automatically if the route file is damaged",
+		section = routeStorageSection,
+		position = 1
+	)
+	default boolean keepRouteBackups()
+	{
+		return true;
+	}
+
+	@ConfigItem(
+		keyName = "routeFileFormat",
+		name = "File Format",
+		description = "Format routes are saved in. JSON can be read and edited by hand, binary files are far smaller and faster to load",
+		section = routeStorageSection,
+		position = 2
+	)
+	default RouteFileFormat routeFileFormat()
+	{
+		return RouteFileFormat.JSON;
+	}
 }
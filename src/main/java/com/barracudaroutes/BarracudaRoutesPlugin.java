@@ -2,8 +2,10 @@ package com.barracudaroutes;
 
 import com.barracudaroutes.managers.RouteImportExportManager;
 import com.barracudaroutes.managers.RouteManager;
+import com.barracudaroutes.managers.RouteRecorder;
 import com.barracudaroutes.managers.RouteVisibilityManager;
 import com.barracudaroutes.ui.BarracudaRoutesPanel;
+import com.barracudaroutes.ui.LapColorPalette;
 import com.barracudaroutes.ui.RouteOverlay;
 import com.google.inject.Provides;
 import java.util.function.Consumer;
@@ -16,6 +18,7 @@ import net.runelite.api.coords.WorldPoint;
 import net.runelite.api.events.GameTick;
 import net.runelite.api.events.MenuEntryAdded;
 import net.runelite.client.config.ConfigManager;
+import net.runelite.client.events.ConfigChanged;
 import net.runelite.client.eventbus.Subscribe;
 import net.runelite.client.plugins.Plugin;
 import net.runelite.client.plugins.PluginDescriptor;
@@ -55,8 +58,15 @@ public class BarracudaRoutesPlugin extends Plugin
 	
 	@Inject
 	private RouteImportExportManager routeImportExportManager;
+
+	@Inject
+	private LapColorPalette lapColorPalette;
+
+	@Inject
+	private RouteRecorder routeRecorder;
 	
 	private BarracudaRoutesPanel panel;
+	private Runnable routeListener;
 	private NavigationButton navButton;
 	private static final int MANUAL_TILE_MENU_IDENTIFIER = 0xBAAA;
 	private static final String MANUAL_TILE_MENU_OPTION = "Add tile to route";
@@ -71,9 +81,11 @@ public class BarracudaRoutesPlugin extends Plugin
 	@Override
 	protected void startUp() throws Exception
 	{
-		// Load routes from disk
-		routeManager.loadRoutes();
 		panel = new BarracudaRoutesPanel(this, colorPickerManager, routeManager, routeImportExportManager);
+		// Load routes from disk in the background, the panel fills in as they are read
+		routeListener = panel::onRoutesLoaded;
+		routeManager.addRouteListener(routeListener);
+		routeManager.loadRoutes();
 		navButton = NavigationButton.builder()
 				.tooltip("Barracuda Routes")
 				.icon(ImageUtil.loadImageResource(getClass(), "/barracuda_icon.png"))
@@ -89,6 +101,10 @@ public class BarracudaRoutesPlugin extends Plugin
 	{
 		overlayManager.remove(routeOverlay);
 		clientToolbar.removeNavigation(navButton);
+		routeManager.removeRouteListener(routeListener);
+		routeRecorder.stop();
+		// Make sure edits that are still waiting to be saved reach the disk
+		routeManager.flushAndWait();
 		panel = null;
 		clearManualTileSelectionConsumer();
 	}
@@ -98,6 +114,16 @@ public class BarracudaRoutesPlugin extends Plugin
 		return client;
 	}
 
+	public LapColorPalette getLapColorPalette()
+	{
+		return lapColorPalette;
+	}
+
+	public RouteRecorder getRouteRecorder()
+	{
+		return routeRecorder;
+	}
+
 	public void setManualTileSelectionConsumer(Consumer<WorldPoint> consumer)
 	{
 		manualTileSelectionConsumer = consumer;
@@ -114,6 +140,17 @@ public class BarracudaRoutesPlugin extends Plugin
 		// Update route visibility manager on each game tick
 		// Only works when not in edit mode (checked inside the manager)
 		routeVisibilityManager.update();
+		// Sample the player position for the route editor while recording
+		routeRecorder.onGameTick();
+	}
+
+	@Subscribe
+	public void onConfigChanged(ConfigChanged event)
+	{
+		if ("barracudaroutes".equals(event.getGroup()))
+		{
+			lapColorPalette.invalidate();
+		}
 	}
 
 	@Subscribe
@@ -154,6 +191,7 @@ public class BarracudaRoutesPlugin extends Plugin
 			.setDeprioritized(false)
 			.setForceLeftClick(true)
 			.onClick(this::handleManualTileMenuClick);
+
 	}
 
 	private void handleManualTileMenuClick(MenuEntry entry)
@@ -188,4 +226,5 @@ public class BarracudaRoutesPlugin extends Plugin
 
 		consumer.accept(worldPoint);
 	}
+
 }
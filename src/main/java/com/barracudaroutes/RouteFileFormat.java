@@ -0,0 +1,30 @@
+package com.barracudaroutes;
+
+/**
+ * File format routes are saved in. Routes in either format are always loaded.
+ */
+public enum RouteFileFormat
+{
+	JSON("JSON", ".json"),
+	BINARY("Binary", ".route");
+
+	private final String displayName;
+	private final String extension;
+
+	RouteFileFormat(String displayName, String extension)
+	{
+		this.displayName = displayName;
+		this.extension = extension;
+	}
+
+	public String getExtension()
+	{
+		return extension;
+	}
+
+	@Override
+	public String toString()
+	{
+		return displayName;
+	}
+}
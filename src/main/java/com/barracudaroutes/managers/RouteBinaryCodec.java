@@ -0,0 +1,373 @@
+package com.barracudaroutes.managers;
+
+import com.barracudaroutes.model.Route;
+import com.barracudaroutes.model.RouteSnapshot;
+import com.barracudaroutes.model.routenodes.LapDividerNode;
+import com.barracudaroutes.model.routenodes.PointNode;
+import com.barracudaroutes.model.routenodes.RouteNode;
+
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary format of routes, a few bytes per tile instead of ~60 for JSON.
+ *
+ * Layout: magic "BRTE", version byte, then name, description and trial name as varint length + 1
+ * (0 for null) followed by UTF-8, a UUID presence byte and two longs, and the node count as a varint.
+ * Nodes follow as records, each starting with a varint tag whose low 2 bits are the record kind:
+ * - points: tag >> 2 points on the current plane, each a zigzag varint dx and dy from the previous point
+ * - plane: tag >> 2 is the plane of the points that follow, so planes are run-length encoded
+ * - lap divider: zigzag tag >> 2 is the lap number, then a color presence byte and the ARGB color
+ * The file ends with a CRC32 of everything before it. Since the plane and lap number share the tag with the
+ * record kind, planes must be between 0 and 2^30 - 1 and lap numbers between -2^29 and 2^29 - 1.
+ */
+final class RouteBinaryCodec
+{
+    private static final byte[] MAGIC = {'B', 'R', 'T', 'E'};
+    private static final int VERSION = 1;
+
+    private static final int KIND_POINTS = 0;
+    private static final int KIND_PLANE = 1;
+    private static final int KIND_LAP_DIVIDER = 2;
+    private static final int MAX_RUN = 1 << 20;
+    private static final int MAX_TAG_VALUE = (1 << 30) - 1;
+
+    private RouteBinaryCodec()
+    {
+    }
+
+    /**
+     * Check if the data starts like a binary route
+     */
+    static boolean isBinaryRoute(byte[] data)
+    {
+        if (data.length < MAGIC.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++)
+        {
+            if (data[i] != MAGIC[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write a route in the binary format
+     *
+     * @throws IOException if a plane or lap number of the route is out of the range the format can hold
+     */
+    static byte[] write(Route route) throws IOException
+    {
+        return write(route, true);
+    }
+
+    /**
+     * Write a route in the binary format, leaving out its UUID if it is going to someone else's library
+     *
+     * @throws IOException if a plane or lap number of the route is out of the range the format can hold
+     */
+    static byte[] write(Route route, boolean withUuid) throws IOException
+    {
+        // Read from one snapshot, the route may be edited while it is being written
+        RouteSnapshot snapshot = route.getSnapshot();
+        Output out = new Output(64 + snapshot.getNodeCount() * 3);
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(VERSION);
+        out.writeString(route.getName());
+        out.writeString(route.getDescription());
+        out.writeString(route.getTrialName());
+        UUID uuid = withUuid ? route.getFileUuid() : null;
+        out.write(uuid != null ? 1 : 0);
+        if (uuid != null)
+        {
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        }
+        out.writeVarint(snapshot.getNodeCount());
+
+        int plane = 0;
+        int lastX = 0;
+        int lastY = 0;
+        int i = 0;
+        while (i < snapshot.getNodeCount())
+        {
+            if (snapshot.isLapDivider(i))
+            {
+                int lap = zigzag(snapshot.getLapNumber(i));
+                if ((lap & ~MAX_TAG_VALUE) != 0)
+                {
+                    throw new IOException("Lap number " + snapshot.getLapNumber(i) + " can't be stored in a binary route");
+                }
+                Color color = ((LapDividerNode) snapshot.getNode(i)).getColor();
+                out.writeVarint(lap << 2 | KIND_LAP_DIVIDER);
+                out.write(color != null ? 1 : 0);
+                if (color != null)
+                {
+                    out.writeInt(color.getRGB());
+                }
+                i++;
+                continue;
+            }
+
+            if (snapshot.getPlane(i) != plane)
+            {
+                plane = snapshot.getPlane(i);
+                if (plane < 0 || plane > MAX_TAG_VALUE)
+                {
+                    throw new IOException("Plane " + plane + " can't be stored in a binary route");
+                }
+                out.writeVarint(plane << 2 | KIND_PLANE);
+            }
+
+            // Run of points up to the next lap divider or plane change
+            int end = i;
+            while (end < snapshot.getNodeCount() && end - i < MAX_RUN
+                && snapshot.isPoint(end) && snapshot.getPlane(end) == plane)
+            {
+                end++;
+            }
+            out.writeVarint((end - i) << 2 | KIND_POINTS);
+            for (; i < end; i++)
+            {
+                out.writeVarint(zigzag(snapshot.getX(i) - lastX));
+                out.writeVarint(zigzag(snapshot.getY(i) - lastY));
+                lastX = snapshot.getX(i);
+                lastY = snapshot.getY(i);
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(out.buffer(), 0, out.size());
+        out.writeInt((int) crc.getValue());
+        return out.toByteArray();
+    }
+
+    /**
+     * Read a binary route
+     *
+     * @throws IOException if the data is not a binary route, or is damaged
+     */
+    static Route read(byte[] data) throws IOException
+    {
+        return read(data, false);
+    }
+
+    /**
+     * Read a binary route, checking it against the {@link RouteImportLimits} if it comes from outside the plugin
+     *
+     * @throws IOException if the data is not a binary route, is damaged or breaks a limit
+     */
+    static Route read(byte[] data, boolean limited) throws IOException
+    {
+        if (!isBinaryRoute(data) || data.length < MAGIC.length + 5)
+        {
+            throw new IOException("Not a binary route");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, data.length - 4);
+        if ((int) crc.getValue() != ByteBuffer.wrap(data, data.length - 4, 4).getInt())
+        {
+            throw new IOException("Route checksum mismatch, the file is damaged");
+        }
+
+        try
+        {
+            buffer.position(MAGIC.length);
+            int version = buffer.get();
+            if (version != VERSION)
+            {
+                throw new IOException("Unsupported binary route version " + version);
+            }
+
+            Route route = new Route(readString(buffer), readString(buffer), readString(buffer));
+            if (limited)
+            {
+                check(RouteImportLimits.checkText("name", route.getName()));
+                check(RouteImportLimits.checkText("description", route.getDescription()));
+                check(RouteImportLimits.checkText("trialName", route.getTrialName()));
+            }
+            if (buffer.get() != 0)
+            {
+                route.setFileUuid(new UUID(buffer.getLong(), buffer.getLong()));
+            }
+
+            int nodeCount = readVarint(buffer);
+            if (limited && nodeCount > RouteImportLimits.MAX_NODES)
+            {
+                throw new IOException("Route has more than " + RouteImportLimits.MAX_NODES + " nodes");
+            }
+            // Every node takes at least a byte, so a damaged count can't make this allocate more than the data
+            List<RouteNode> nodes = new ArrayList<>(Math.min(nodeCount, data.length));
+            int plane = 0;
+            int x = 0;
+            int y = 0;
+            while (buffer.hasRemaining())
+            {
+                int tag = readVarint(buffer);
+                int value = tag >>> 2;
+                switch (tag & 3)
+                {
+                    case KIND_POINTS:
+                        if (value > nodeCount - nodes.size())
+                        {
+                            throw new IOException("Binary route has more nodes than its header says");
+                        }
+                        for (int i = 0; i < value; i++)
+                        {
+                            x += unzigzag(readVarint(buffer));
+                            y += unzigzag(readVarint(buffer));
+                            if (limited)
+                            {
+                                check(RouteImportLimits.checkPoint(x, y, plane));
+                            }
+                            nodes.add(new PointNode(x, y, plane));
+                        }
+                        break;
+                    case KIND_PLANE:
+                        plane = value;
+                        break;
+                    case KIND_LAP_DIVIDER:
+                        if (nodes.size() >= nodeCount)
+                        {
+                            throw new IOException("Binary route has more nodes than its header says");
+                        }
+                        Color color = buffer.get() != 0 ? new Color(buffer.getInt(), true) : null;
+                        if (limited)
+                        {
+                            check(RouteImportLimits.checkLapNumber(unzigzag(value)));
+                        }
+                        nodes.add(new LapDividerNode(unzigzag(value), color));
+                        break;
+                    default:
+                        throw new IOException("Unknown binary route record " + (tag & 3));
+                }
+            }
+
+            if (nodes.size() != nodeCount)
+            {
+                throw new IOException("Binary route is missing nodes");
+            }
+            route.addNodes(nodes);
+            return route;
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new IOException("Binary route is truncated", e);
+        }
+    }
+
+    private static void check(String problem) throws IOException
+    {
+        if (problem != null)
+        {
+            throw new IOException(problem);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException
+    {
+        int length = readVarint(buffer) - 1;
+        if (length < 0)
+        {
+            return null;
+        }
+        if (length > buffer.remaining())
+        {
+            throw new IOException("Binary route is truncated");
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static int readVarint(ByteBuffer buffer) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7)
+        {
+            int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in binary route");
+    }
+
+    private static int zigzag(int value)
+    {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Byte array output with varint helpers, exposing its buffer so the CRC can be taken without a copy
+     */
+    private static class Output extends ByteArrayOutputStream
+    {
+        Output(int size)
+        {
+            super(size);
+        }
+
+        byte[] buffer()
+        {
+            return buf;
+        }
+
+        void writeVarint(int value)
+        {
+            while ((value & ~0x7F) != 0)
+            {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        void writeInt(int value)
+        {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeLong(long value)
+        {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void writeString(String value)
+        {
+            if (value == null)
+            {
+                writeVarint(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1);
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
@@ -1,142 +1,84 @@
 package com.barracudaroutes.managers;
 
 import com.barracudaroutes.model.Route;
-import com.barracudaroutes.model.routenodes.LapDividerNode;
-import com.barracudaroutes.model.routenodes.PointNode;
-import com.barracudaroutes.model.routenodes.RouteNode;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
+import com.barracudaroutes.model.RouteInfo;
 import lombok.extern.slf4j.Slf4j;
 
-import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.awt.Color;
 import java.awt.Toolkit;
 import java.awt.datatransfer.StringSelection;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 /**
- * Manages import and export of routes to/from JSON format.
- * Handles clipboard and file-based import/export operations.
+ * Manages import and export of routes to/from JSON format and share codes.
+ * Handles clipboard and file-based import/export operations, including route packs: zip files
+ * holding many routes as one JSON entry each, which are written and read on a background thread.
+ * Imported routes are checked against the {@link RouteImportLimits} while they are parsed.
  */
 @Slf4j
 @Singleton
 public class RouteImportExportManager
 {
-    private final Gson gson;
+    private static final String PACK_ENTRY_SUFFIX = ".json";
     
-    // Custom serializer/deserializer for Color
-    private static class ColorAdapter implements JsonSerializer<Color>, JsonDeserializer<Color>
+    // Imports and route packs are read and written one at a time, off the event dispatch thread
+    private final ExecutorService importExportExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "barracuda-routes-import-export");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * Export a route to JSON string
+     */
+    public String exportRouteToJson(Route route)
     {
-        @Override
-        public JsonElement serialize(Color src, Type typeOfSrc, JsonSerializationContext context)
-        {
-            JsonObject obj = new JsonObject();
-            obj.addProperty("r", src.getRed());
-            obj.addProperty("g", src.getGreen());
-            obj.addProperty("b", src.getBlue());
-            obj.addProperty("a", src.getAlpha());
-            return obj;
-        }
-        
-        @Override
-        public Color deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
-                throws JsonParseException
+        if (route == null)
         {
-            JsonObject obj = json.getAsJsonObject();
-            int r = obj.get("r").getAsInt();
-            int g = obj.get("g").getAsInt();
-            int b = obj.get("b").getAsInt();
-            int a = obj.has("a") ? obj.get("a").getAsInt() : 255;
-            return new Color(r, g, b, a);
+            log.warn("Attempted to export null route");
+            return null;
         }
-    }
-    
-    // Custom serializer/deserializer for RouteNode
-    private static class RouteNodeAdapter implements JsonSerializer<RouteNode>, JsonDeserializer<RouteNode>
-    {
-        private final ColorAdapter colorAdapter = new ColorAdapter();
         
-        @Override
-        public JsonElement serialize(RouteNode src, Type typeOfSrc, JsonSerializationContext context)
+        try
         {
-            JsonObject obj = new JsonObject();
-            obj.addProperty("type", src.getType());
-            
-            if (src instanceof PointNode)
-            {
-                PointNode point = (PointNode) src;
-                obj.addProperty("x", point.getX());
-                obj.addProperty("y", point.getY());
-                obj.addProperty("plane", point.getPlane());
-            }
-            else if (src instanceof LapDividerNode)
-            {
-                LapDividerNode lapDivider = (LapDividerNode) src;
-                obj.addProperty("lapNumber", lapDivider.getLapNumber());
-                if (lapDivider.getColor() != null)
-                {
-                    obj.add("color", colorAdapter.serialize(lapDivider.getColor(), Color.class, context));
-                }
-            }
-            
-            return obj;
+            return RouteJsonCodec.toJson(route, true);
         }
-        
-        @Override
-        public RouteNode deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
-                throws JsonParseException
+        catch (Exception e)
         {
-            JsonObject obj = json.getAsJsonObject();
-            String type = obj.get("type").getAsString();
-            
-            if ("point".equals(type))
-            {
-                int x = obj.get("x").getAsInt();
-                int y = obj.get("y").getAsInt();
-                int plane = obj.get("plane").getAsInt();
-                return new PointNode(x, y, plane);
-            }
-            else if ("lapDivider".equals(type))
-            {
-                int lapNumber = obj.get("lapNumber").getAsInt();
-                Color color = null;
-                if (obj.has("color"))
-                {
-                    color = colorAdapter.deserialize(obj.get("color"), Color.class, context);
-                }
-                return new LapDividerNode(lapNumber, color);
-            }
-            
-            throw new JsonParseException("Unknown route node type: " + type);
+            log.error("Failed to export route to JSON", e);
+            return null;
         }
     }
     
-    @Inject
-    public RouteImportExportManager()
-    {
-        GsonBuilder builder = new GsonBuilder();
-        builder.setPrettyPrinting();
-        builder.registerTypeAdapter(Color.class, new ColorAdapter());
-        builder.registerTypeAdapter(RouteNode.class, new RouteNodeAdapter());
-        this.gson = builder.create();
-    }
-    
     /**
-     * Export a route to JSON string
+     * Export a route to a share code, a compressed single line that fits in a chat message
      */
-    public String exportRouteToJson(Route route)
+    public String exportRouteToShareCode(Route route)
     {
         if (route == null)
         {
@@ -146,29 +88,29 @@ public class RouteImportExportManager
         
         try
         {
-            return gson.toJson(route);
+            return RouteShareCode.encode(route);
         }
         catch (Exception e)
         {
-            log.error("Failed to export route to JSON", e);
+            log.error("Failed to export route to share code", e);
             return null;
         }
     }
     
     /**
-     * Export a route to clipboard
+     * Export a route to clipboard as a share code
      */
     public boolean exportRouteToClipboard(Route route)
     {
-        String json = exportRouteToJson(route);
-        if (json == null)
+        String code = exportRouteToShareCode(route);
+        if (code == null)
         {
             return false;
         }
         
         try
         {
-            StringSelection contents = new StringSelection(json);
+            StringSelection contents = new StringSelection(code);
             Toolkit.getDefaultToolkit().getSystemClipboard().setContents(contents, null);
             return true;
         }
@@ -180,58 +122,181 @@ public class RouteImportExportManager
     }
     
     /**
-     * Import a route from JSON string
+     * Import a route from a share code or JSON string in the background
+     *
+     * @return a future with the route, failing with a description of what is wrong with the route data
      */
-    public Route importRouteFromJson(String json)
+    public CompletableFuture<Route> importRouteAsync(String text)
+    {
+        return CompletableFuture.supplyAsync(() -> {
+            try
+            {
+                return readImport(text);
+            }
+            catch (IOException e)
+            {
+                throw new CompletionException(e);
+            }
+        }, importExportExecutor);
+    }
+    
+    private Route readImport(String text) throws IOException
     {
-        if (json == null || json.trim().isEmpty())
+        if (text == null || text.trim().isEmpty())
         {
-            log.warn("Attempted to import route from empty JSON");
-            return null;
+            throw new IOException("There is no route data");
+        }
+        if (text.length() > RouteImportLimits.MAX_IMPORT_LENGTH)
+        {
+            throw new IOException("Route data is longer than " + RouteImportLimits.MAX_IMPORT_LENGTH + " characters");
         }
         
-        try
+        Route route = RouteShareCode.isShareCode(text)
+            ? RouteShareCode.decode(text)
+            : RouteJsonCodec.readImport(new StringReader(text));
+        
+        // Validate the imported route
+        if (route.getName() == null)
         {
-            Route route = gson.fromJson(json, Route.class);
-            
-            // Validate the imported route
-            if (route == null || route.getName() == null || route.getRoute() == null)
+            throw new IOException("Route is missing its name");
+        }
+        
+        // Generate a new UUID for the imported route to avoid conflicts
+        route.setFileUuid(UUID.randomUUID());
+        
+        return route;
+    }
+    
+    /**
+     * Export routes to a route pack in the background. Routes are loaded and written one at a time,
+     * so the pack is never held in memory as a whole.
+     *
+     * @param loader loads a route's nodes, called on the background thread
+     * @param progress called with the number of routes written so far and the total, on the background thread
+     * @return a future with the number of routes written
+     */
+    public CompletableFuture<Integer> exportRoutesToPack(List<RouteInfo> routes, Function<RouteInfo, Route> loader,
+                                                         File file, BiConsumer<Integer, Integer> progress)
+    {
+        return CompletableFuture.supplyAsync(() -> {
+            int written = 0;
+            Set<String> entryNames = new HashSet<>();
+            try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file)))
             {
-                log.warn("Imported route is missing required fields");
-                return null;
+                Writer writer = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8));
+                for (int i = 0; i < routes.size(); i++)
+                {
+                    Route route = loader.apply(routes.get(i));
+                    if (route == null)
+                    {
+                        log.warn("Skipping route that could not be loaded: {}", routes.get(i).getName());
+                    }
+                    else
+                    {
+                        zip.putNextEntry(new ZipEntry(getPackEntryName(route, entryNames)));
+                        RouteJsonCodec.write(route, writer, true);
+                        writer.flush();
+                        zip.closeEntry();
+                        written++;
+                    }
+                    progress.accept(i + 1, routes.size());
+                }
             }
-            
-            // Generate a new UUID for the imported route to avoid conflicts
-            route.setFileUuid(UUID.randomUUID());
-            
-            return route;
+            catch (IOException e)
+            {
+                log.error("Failed to export routes to file: {}", file, e);
+                throw new IllegalStateException("Failed to write " + file.getName() + ": " + e.getMessage(), e);
+            }
+            log.info("Exported {} routes to {}", written, file);
+            return written;
+        }, importExportExecutor);
+    }
+    
+    /**
+     * Get a unique entry name for a route, grouped by trial like the routes directory
+     */
+    private static String getPackEntryName(Route route, Set<String> entryNames)
+    {
+        String trialName = route.getTrialName();
+        if (trialName == null || trialName.isEmpty())
+        {
+            trialName = "The Tempor Tantrum"; // Default trial
         }
-        catch (Exception e)
+        String baseName = trialName.replaceAll("[\\\\/:*?\"<>|]", "_") + "/"
+            + route.getName().replaceAll("[\\\\/:*?\"<>|]", "_");
+        String name = baseName + PACK_ENTRY_SUFFIX;
+        for (int counter = 1; !entryNames.add(name); counter++)
         {
-            log.error("Failed to import route from JSON", e);
-            return null;
+            name = baseName + " (" + counter + ")" + PACK_ENTRY_SUFFIX;
         }
+        return name;
     }
     
     /**
-     * Import a route from a file
+     * Import the routes of a route pack in the background. Entries are parsed one at a time and handed
+     * to the consumer as they are read, entries that are not valid routes are skipped.
+     *
+     * @param consumer receives each imported route, on the background thread
+     * @param skipped receives the name of each entry that is not a valid route, on the background thread
+     * @param progress called with the number of entries read so far and the total, on the background thread
+     * @return a future with the number of routes imported
      */
-    public Route importRouteFromFile(File file)
+    public CompletableFuture<Integer> importRoutesFromPack(File file, Consumer<Route> consumer, Consumer<String> skipped,
+                                                           BiConsumer<Integer, Integer> progress)
     {
-        if (file == null || !file.exists() || !file.isFile())
+        return CompletableFuture.supplyAsync(() -> {
+            int imported = 0;
+            try (ZipFile zip = new ZipFile(file))
+            {
+                int total = zip.size();
+                int read = 0;
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements())
+                {
+                    ZipEntry entry = entries.nextElement();
+                    read++;
+                    if (!entry.isDirectory() && entry.getName().endsWith(PACK_ENTRY_SUFFIX))
+                    {
+                        Route route = readPackEntry(zip, entry);
+                        if (route != null)
+                        {
+                            consumer.accept(route);
+                            imported++;
+                        }
+                        else
+                        {
+                            skipped.accept(entry.getName());
+                        }
+                    }
+                    progress.accept(read, total);
+                }
+            }
+            catch (IOException e)
+            {
+                log.error("Failed to import routes from file: {}", file, e);
+                throw new IllegalStateException("Failed to read " + file.getName() + ": " + e.getMessage(), e);
+            }
+            log.info("Imported {} routes from {}", imported, file);
+            return imported;
+        }, importExportExecutor);
+    }
+    
+    private Route readPackEntry(ZipFile zip, ZipEntry entry)
+    {
+        if (entry.getSize() > RouteImportLimits.MAX_IMPORT_LENGTH)
         {
-            log.warn("Invalid file for route import: {}", file);
+            log.warn("Skipping route pack entry larger than {} bytes: {}", RouteImportLimits.MAX_IMPORT_LENGTH, entry.getName());
             return null;
         }
         
-        try (FileReader reader = new FileReader(file))
+        try (Reader reader = new BufferedReader(new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8)))
         {
-            Route route = gson.fromJson(reader, Route.class);
+            Route route = RouteJsonCodec.readImport(reader);
             
             // Validate the imported route
-            if (route == null || route.getName() == null || route.getRoute() == null)
+            if (route == null || route.getName() == null)
             {
-                log.warn("Imported route from file is missing required fields");
+                log.warn("Route pack entry is missing required fields: {}", entry.getName());
                 return null;
             }
             
@@ -240,16 +305,10 @@ public class RouteImportExportManager
             
             return route;
         }
-        catch (IOException e)
-        {
-            log.error("Failed to read route file: {}", file, e);
-            return null;
-        }
         catch (Exception e)
         {
-            log.error("Failed to import route from file: {}", file, e);
+            log.warn("Skipping invalid route pack entry: {}", entry.getName(), e);
             return null;
         }
     }
 }
-
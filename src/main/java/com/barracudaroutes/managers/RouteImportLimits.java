@@ -0,0 +1,59 @@
+package com.barracudaroutes.managers;
+
+/**
+ * Limits on routes that come from outside the plugin: pasted share codes and JSON, route files and packs.
+ * Routes are checked while they are read, so a huge or malformed route is rejected before it is built in full.
+ */
+final class RouteImportLimits
+{
+    static final int MAX_IMPORT_LENGTH = 8 << 20; // Characters of pasted text, or bytes of a route file or pack entry
+    static final int MAX_NODES = 100_000;
+    static final int MAX_TEXT_LENGTH = 10_000; // Of the name, description and trial name
+    private static final int MAX_COORDINATE = 32_767; // World coordinates are 15 bits
+    private static final int MAX_PLANE = 3;
+    private static final int MAX_LAP_NUMBER = 10_000;
+
+    private RouteImportLimits()
+    {
+    }
+
+    /**
+     * @return why the point can't be imported, or null if it is within bounds
+     */
+    static String checkPoint(int x, int y, int plane)
+    {
+        if (x < 0 || x > MAX_COORDINATE || y < 0 || y > MAX_COORDINATE)
+        {
+            return "Point " + x + ", " + y + " is outside the world";
+        }
+        if (plane < 0 || plane > MAX_PLANE)
+        {
+            return "Point plane " + plane + " is not between 0 and " + MAX_PLANE;
+        }
+        return null;
+    }
+
+    /**
+     * @return why the lap divider can't be imported, or null if it is within bounds
+     */
+    static String checkLapNumber(int lapNumber)
+    {
+        if (lapNumber < 1 || lapNumber > MAX_LAP_NUMBER)
+        {
+            return "Lap number " + lapNumber + " is not between 1 and " + MAX_LAP_NUMBER;
+        }
+        return null;
+    }
+
+    /**
+     * @return why the text can't be imported, or null if it is short enough
+     */
+    static String checkText(String field, String value)
+    {
+        if (value != null && value.length() > MAX_TEXT_LENGTH)
+        {
+            return "Route " + field + " is longer than " + MAX_TEXT_LENGTH + " characters";
+        }
+        return null;
+    }
+}
@@ -0,0 +1,392 @@
+package com.barracudaroutes.managers;
+
+import com.barracudaroutes.model.RouteInfo;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Snapshot of the parsed route library, stored next to the trial directories so the library can be
+ * listed at startup from one small read instead of parsing every route file. Each entry holds a
+ * route's metadata and where its nodes, in the binary route format, are further down the file.
+ * An entry is only trusted while the size and modification time of its route file still match.
+ *
+ * Only the metadata is kept in memory, the nodes of a route are read from the file when the route is
+ * loaded. Nodes that are not in the file yet, of routes saved or parsed since it was written, are held
+ * until the next {@link #saveIfChanged}. The file is rewritten as a whole, so that is only done once
+ * the library has loaded and when the plugin shuts down.
+ *
+ * Layout: magic "BRTC", version byte, entry count, then per entry the UUID, name, trial name, route file
+ * path relative to the routes directory, file size and mtime, point count, lap count, length, content hash,
+ * and the offset and length of its binary route (offset -1 if none). A CRC32 of everything up to there
+ * follows, then the binary routes, which carry their own CRC32.
+ */
+@Slf4j
+class RouteIndex
+{
+    private static final byte[] MAGIC = {'B', 'R', 'T', 'C'};
+    private static final int VERSION = 3;
+
+    private final Path routesDir;
+    private final Path indexPath;
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean changed;
+
+    RouteIndex(Path routesDir, Path indexPath)
+    {
+        this.routesDir = routesDir;
+        this.indexPath = indexPath;
+    }
+
+    private static class Entry
+    {
+        final RouteInfo info;
+        final long offset; // Of the binary route in the index file, -1 if it isn't there
+        final int length;
+        final byte[] pending; // Binary route that is not in the index file yet, null if none
+
+        Entry(RouteInfo info, long offset, int length, byte[] pending)
+        {
+            this.info = info;
+            this.offset = offset;
+            this.length = length;
+            this.pending = pending;
+        }
+
+        int getPayloadLength()
+        {
+            if (pending != null)
+            {
+                return pending.length;
+            }
+            return offset >= 0 ? length : 0;
+        }
+    }
+
+    RouteInfo get(UUID uuid)
+    {
+        Entry entry = entries.get(uuid);
+        return entry != null ? entry.info : null;
+    }
+
+    /**
+     * Read the route's nodes in the binary route format, as of when its route file was last read or written
+     *
+     * @return the binary route, or null if the index doesn't have it
+     */
+    synchronized byte[] readPayload(UUID uuid)
+    {
+        // Locked so the index file can't be replaced between looking up the entry and reading from it
+        Entry entry = entries.get(uuid);
+        if (entry == null)
+        {
+            return null;
+        }
+        if (entry.pending != null)
+        {
+            return entry.pending;
+        }
+        if (entry.offset < 0)
+        {
+            return null;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(indexPath.toFile(), "r"))
+        {
+            byte[] payload = new byte[entry.length];
+            file.seek(entry.offset);
+            file.readFully(payload);
+            return payload;
+        }
+        catch (IOException e)
+        {
+            log.warn("Failed to read route {} from the route index", uuid, e);
+            return null;
+        }
+    }
+
+    void put(RouteInfo info, byte[] payload)
+    {
+        entries.put(info.getUuid(), new Entry(info, -1, 0, payload));
+        changed = true;
+    }
+
+    void remove(UUID uuid)
+    {
+        if (entries.remove(uuid) != null)
+        {
+            changed = true;
+        }
+    }
+
+    /**
+     * Get the UUIDs of the indexed routes, as of now
+     */
+    Set<UUID> getUuids()
+    {
+        return new HashSet<>(entries.keySet());
+    }
+
+    /**
+     * Get the entries by route file, for matching against the files found on disk
+     */
+    Map<Path, RouteInfo> getByPath()
+    {
+        Map<Path, RouteInfo> byPath = new HashMap<>();
+        for (Entry entry : entries.values())
+        {
+            byPath.put(entry.info.getPath(), entry.info);
+        }
+        return byPath;
+    }
+
+    /**
+     * Read the index from disk, replacing the entries in memory. Only the metadata is read, binary routes
+     * stay on disk until they are needed. A missing or damaged index is left empty, the routes are then
+     * read from their files instead.
+     */
+    synchronized void load()
+    {
+        entries.clear();
+        changed = false;
+        if (!Files.exists(indexPath))
+        {
+            return;
+        }
+
+        try (CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(indexPath)), new CRC32());
+             DataInputStream in = new DataInputStream(checked))
+        {
+            long fileSize = Files.size(indexPath);
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC))
+            {
+                throw new IOException("Not a route index");
+            }
+            if (in.readUnsignedByte() != VERSION)
+            {
+                log.debug("Ignoring route index with an unknown version");
+                return;
+            }
+
+            int count = in.readInt();
+            Map<UUID, Entry> read = new HashMap<>();
+            for (int i = 0; i < count; i++)
+            {
+                Entry entry = readEntry(in, fileSize);
+                read.put(entry.info.getUuid(), entry);
+            }
+            int crc = (int) checked.getChecksum().getValue();
+            if (crc != in.readInt())
+            {
+                throw new IOException("Route index checksum mismatch");
+            }
+            entries.putAll(read);
+        }
+        catch (Exception e)
+        {
+            log.warn("Failed to read route index, route files will be read instead: {}", indexPath, e);
+            entries.clear();
+        }
+    }
+
+    private Entry readEntry(DataInputStream in, long fileSize) throws IOException
+    {
+        UUID uuid = new UUID(in.readLong(), in.readLong());
+        String name = readString(in);
+        String trialName = readString(in);
+        Path path = routesDir.resolve(in.readUTF());
+        long size = in.readLong();
+        long lastModified = in.readLong();
+        int pointCount = in.readInt();
+        int lapCount = in.readInt();
+        double length = in.readDouble();
+        long contentHash = in.readLong();
+        long offset = in.readLong();
+        int payloadLength = in.readInt();
+        if (offset < 0 || payloadLength < 0 || offset + payloadLength > fileSize)
+        {
+            offset = -1;
+            payloadLength = 0;
+        }
+        RouteInfo info = new RouteInfo(uuid, name, trialName, path, lastModified, size, pointCount, lapCount, length, contentHash);
+        return new Entry(info, offset, payloadLength, null);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Write the index if it changed since it was last read or written. Binary routes are copied over from
+     * the current index file, or written from memory for routes that are not in it yet, and are only kept
+     * on disk from then on.
+     */
+    synchronized void saveIfChanged()
+    {
+        if (!changed)
+        {
+            return;
+        }
+        changed = false;
+
+        Path tempPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        Entry[] snapshot = entries.values().toArray(new Entry[0]);
+        long[] offsets = new long[snapshot.length];
+        try
+        {
+            Files.createDirectories(routesDir);
+            try (RandomAccessFile previous = Files.exists(indexPath) ? new RandomAccessFile(indexPath.toFile(), "r") : null;
+                 RandomAccessFile out = new RandomAccessFile(tempPath.toFile(), "rw"))
+            {
+                out.setLength(0);
+                out.write(writeHeader(snapshot, offsets, previous != null));
+                FileChannel outChannel = out.getChannel();
+                for (int i = 0; i < snapshot.length; i++)
+                {
+                    Entry entry = snapshot[i];
+                    if (offsets[i] < 0)
+                    {
+                        continue;
+                    }
+                    if (entry.pending != null)
+                    {
+                        out.write(entry.pending);
+                    }
+                    else
+                    {
+                        copy(previous.getChannel(), entry.offset, entry.length, outChannel);
+                    }
+                }
+            }
+
+            // The index is only a cache of the route files, so it is replaced without a backup
+            try
+            {
+                Files.move(tempPath, indexPath, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Failed to write route index: {}", indexPath, e);
+            changed = true;
+            return;
+        }
+
+        // The binary routes are on disk now. Entries replaced meanwhile keep theirs until the next write.
+        for (int i = 0; i < snapshot.length; i++)
+        {
+            Entry entry = snapshot[i];
+            Entry written = new Entry(entry.info, offsets[i], offsets[i] >= 0 ? entry.getPayloadLength() : 0, null);
+            entries.replace(entry.info.getUuid(), entry, written);
+        }
+    }
+
+    /**
+     * Write the metadata of the entries followed by its CRC32, and work out where each binary route goes
+     *
+     * @param canCopy whether there is a previous index file to copy binary routes from
+     */
+    private byte[] writeHeader(Entry[] snapshot, long[] offsets, boolean canCopy) throws IOException
+    {
+        // Every entry has a fixed size apart from its strings, so the header size is known before the offsets
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(snapshot.length);
+        for (Entry entry : snapshot)
+        {
+            writeEntry(out, entry, -1, 0);
+        }
+        long next = bytes.size() + 4;
+
+        bytes.reset();
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(snapshot.length);
+        for (int i = 0; i < snapshot.length; i++)
+        {
+            Entry entry = snapshot[i];
+            int length = entry.getPayloadLength();
+            boolean available = entry.pending != null || (canCopy && entry.offset >= 0);
+            offsets[i] = available && length > 0 ? next : -1;
+            writeEntry(out, entry, offsets[i], offsets[i] >= 0 ? length : 0);
+            if (offsets[i] >= 0)
+            {
+                next += length;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        return bytes.toByteArray();
+    }
+
+    private void writeEntry(DataOutputStream out, Entry entry, long offset, int length) throws IOException
+    {
+        RouteInfo info = entry.info;
+        out.writeLong(info.getUuid().getMostSignificantBits());
+        out.writeLong(info.getUuid().getLeastSignificantBits());
+        writeString(out, info.getName());
+        writeString(out, info.getTrialName());
+        // Relative, so the index stays valid if the RuneLite directory moves
+        out.writeUTF(routesDir.relativize(info.getPath()).toString());
+        out.writeLong(info.getSize());
+        out.writeLong(info.getLastModified());
+        out.writeInt(info.getPointCount());
+        out.writeInt(info.getLapCount());
+        out.writeDouble(info.getLength());
+        out.writeLong(info.getContentHash());
+        out.writeLong(offset);
+        out.writeInt(length);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        out.writeBoolean(value != null);
+        if (value != null)
+        {
+            out.writeUTF(value);
+        }
+    }
+
+    private static void copy(FileChannel from, long position, long count, FileChannel to) throws IOException
+    {
+        while (count > 0)
+        {
+            long copied = from.transferTo(position, count, to);
+            if (copied <= 0)
+            {
+                throw new IOException("Route index is shorter than its entries say");
+            }
+            position += copied;
+            count -= copied;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.barracudaroutes.managers;
+
+import com.barracudaroutes.model.Route;
+import com.barracudaroutes.model.RouteSnapshot;
+import com.barracudaroutes.model.routenodes.LapDividerNode;
+import com.barracudaroutes.model.routenodes.PointNode;
+import com.barracudaroutes.model.routenodes.RouteNode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only journal of the nodes recorded into a route since its file was last written.
+ * Each record is the node plus its index in the route (the sequence number), so records that the
+ * route file already contains are skipped when the journal is replayed.
+ *
+ * Record layout, 14 bytes big endian:
+ * int index, byte type, byte flags, then x, y for a point or lap number, ARGB color for a lap divider.
+ * The plane of a point is stored in the flags. A lap divider has flag 1 set when it has a custom color.
+ */
+@Slf4j
+class RouteJournal
+{
+    static final String SUFFIX = ".journal";
+
+    private static final int RECORD_SIZE = 14;
+    private static final byte TYPE_POINT = 1;
+    private static final byte TYPE_LAP_DIVIDER = 2;
+    private static final byte FLAG_COLOR = 1;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 64);
+
+    private RouteJournal(Path path, FileChannel channel)
+    {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    /**
+     * Create an empty journal, replacing any existing one at the path
+     */
+    static RouteJournal create(Path path) throws IOException
+    {
+        Files.createDirectories(path.getParent());
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        return new RouteJournal(path, channel);
+    }
+
+    Path getPath()
+    {
+        return path;
+    }
+
+    /**
+     * Append the nodes from fromIndex to the end of the snapshot
+     */
+    synchronized void append(RouteSnapshot snapshot, int fromIndex) throws IOException
+    {
+        for (int i = fromIndex; i < snapshot.getNodeCount(); i++)
+        {
+            if (buffer.remaining() < RECORD_SIZE)
+            {
+                writeBuffer();
+            }
+            buffer.putInt(i);
+            if (snapshot.isLapDivider(i))
+            {
+                Color color = ((LapDividerNode) snapshot.getNode(i)).getColor();
+                buffer.put(TYPE_LAP_DIVIDER);
+                buffer.put(color != null ? FLAG_COLOR : 0);
+                buffer.putInt(snapshot.getLapNumber(i));
+                buffer.putInt(color != null ? color.getRGB() : 0);
+            }
+            else
+            {
+                buffer.put(TYPE_POINT);
+                buffer.put((byte) snapshot.getPlane(i));
+                buffer.putInt(snapshot.getX(i));
+                buffer.putInt(snapshot.getY(i));
+            }
+        }
+        // Hand the records to the OS right away, so they survive the client being killed
+        writeBuffer();
+    }
+
+    private void writeBuffer() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Drop all records, called once the route file holds everything in the journal
+     */
+    synchronized void truncate() throws IOException
+    {
+        channel.truncate(0);
+        channel.position(0);
+    }
+
+    synchronized void close()
+    {
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            log.warn("Failed to close route journal: {}", path, e);
+        }
+    }
+
+    /**
+     * Close the journal and delete its file
+     */
+    void delete()
+    {
+        close();
+        try
+        {
+            Files.deleteIfExists(path);
+        }
+        catch (IOException e)
+        {
+            log.warn("Failed to delete route journal: {}", path, e);
+        }
+    }
+
+    /**
+     * Apply the records of a journal file that the route doesn't have yet
+     *
+     * @return the number of nodes added to the route
+     */
+    static int replay(Path path, Route route) throws IOException
+    {
+        ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(path));
+        // Collected first so the route publishes one snapshot instead of one per record
+        List<RouteNode> added = new ArrayList<>(records.remaining() / RECORD_SIZE);
+        // A torn record at the end is from a write cut short by a crash, and is ignored
+        while (records.remaining() >= RECORD_SIZE)
+        {
+            int index = records.getInt();
+            byte type = records.get();
+            byte flags = records.get();
+            int first = records.getInt();
+            int second = records.getInt();
+
+            int next = route.getNodeCount() + added.size();
+            if (index < next)
+            {
+                // Already in the route file
+                continue;
+            }
+            if (index > next)
+            {
+                log.warn("Route journal {} skips from node {} to {}, ignoring the rest", path, next, index);
+                break;
+            }
+
+            if (type == TYPE_POINT)
+            {
+                added.add(new PointNode(first, second, flags));
+            }
+            else if (type == TYPE_LAP_DIVIDER)
+            {
+                Color color = (flags & FLAG_COLOR) != 0 ? new Color(second, true) : null;
+                added.add(new LapDividerNode(first, color));
+            }
+            else
+            {
+                log.warn("Route journal {} has an unknown record type {}, ignoring the rest", path, type);
+                break;
+            }
+        }
+        route.addNodes(added);
+        return added.size();
+    }
+}
@@ -0,0 +1,443 @@
+package com.barracudaroutes.managers;
+
+import com.barracudaroutes.model.Route;
+import com.barracudaroutes.model.RouteSnapshot;
+import com.barracudaroutes.model.routenodes.LapDividerNode;
+import com.barracudaroutes.model.routenodes.PointNode;
+import com.barracudaroutes.model.routenodes.RouteNode;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * JSON format of routes, shared by route files and import/export.
+ * Routes are read and written token by token, without building a JSON tree per node.
+ *
+ * Format: {"name", "description", "trialName", "route": [nodes], "fileUuid"}, where a node is
+ * {"type": "point", "x", "y", "plane"} or {"type": "lapDivider", "lapNumber", "color": {"r", "g", "b", "a"}}.
+ */
+final class RouteJsonCodec
+{
+    private static final String POINT_TYPE = "point";
+    private static final String LAP_DIVIDER_TYPE = "lapDivider";
+
+    private static final ColorAdapter COLOR_ADAPTER = new ColorAdapter();
+    private static final RouteNodeAdapter NODE_ADAPTER = new RouteNodeAdapter(false);
+    private static final RouteAdapter ROUTE_ADAPTER = new RouteAdapter(NODE_ADAPTER, false);
+    // Checks imported routes against RouteImportLimits as they are read
+    private static final RouteAdapter IMPORT_ROUTE_ADAPTER = new RouteAdapter(new RouteNodeAdapter(true), true);
+
+    private RouteJsonCodec()
+    {
+    }
+
+    /**
+     * Write a route as JSON, indented for reading by people if prettyPrint is set
+     */
+    static void write(Route route, Writer out, boolean prettyPrint) throws IOException
+    {
+        JsonWriter writer = new JsonWriter(out);
+        if (prettyPrint)
+        {
+            writer.setIndent("  ");
+        }
+        ROUTE_ADAPTER.write(writer, route);
+        writer.flush();
+    }
+
+    static String toJson(Route route, boolean prettyPrint)
+    {
+        StringWriter out = new StringWriter();
+        try
+        {
+            write(route, out, prettyPrint);
+        }
+        catch (IOException e)
+        {
+            // A StringWriter doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Read a route from JSON
+     *
+     * @throws JsonParseException if the JSON isn't a valid route
+     */
+    static Route read(Reader in) throws IOException
+    {
+        return read(in, ROUTE_ADAPTER);
+    }
+
+    static Route fromJson(String json) throws IOException
+    {
+        return read(new StringReader(json));
+    }
+
+    /**
+     * Read a route from outside the plugin, rejecting it as soon as it breaks one of the {@link RouteImportLimits}
+     *
+     * @throws JsonParseException if the JSON isn't a valid route, with the line and column of the problem
+     */
+    static Route readImport(Reader in) throws IOException
+    {
+        return read(in, IMPORT_ROUTE_ADAPTER);
+    }
+
+    private static Route read(Reader in, RouteAdapter adapter) throws IOException
+    {
+        JsonReader reader = new JsonReader(in);
+        reader.setLenient(true);
+        Route route = adapter.read(reader);
+        if (reader.peek() != JsonToken.END_DOCUMENT)
+        {
+            throw new JsonParseException("Unexpected content after route" + location(reader));
+        }
+        return route;
+    }
+
+    /**
+     * Describe where the reader is, as " at line 3 column 14 path $.route[2]"
+     */
+    private static String location(JsonReader in)
+    {
+        // Gson only exposes the line and column through toString
+        String description = in.toString();
+        int at = description.indexOf(" at line ");
+        return at >= 0 ? description.substring(at) : " at " + in.getPath();
+    }
+
+    /**
+     * Throw if there is a problem, describing where the reader is. The location is only worked out then,
+     * since it is too slow to take for every node.
+     */
+    private static void check(String problem, JsonReader in)
+    {
+        if (problem != null)
+        {
+            throw new JsonParseException(problem + location(in));
+        }
+    }
+
+    private static class ColorAdapter extends TypeAdapter<Color>
+    {
+        @Override
+        public void write(JsonWriter out, Color color) throws IOException
+        {
+            out.beginObject();
+            out.name("r").value(color.getRed());
+            out.name("g").value(color.getGreen());
+            out.name("b").value(color.getBlue());
+            out.name("a").value(color.getAlpha());
+            out.endObject();
+        }
+
+        @Override
+        public Color read(JsonReader in) throws IOException
+        {
+            int r = -1;
+            int g = -1;
+            int b = -1;
+            int a = 255;
+            in.beginObject();
+            while (in.hasNext())
+            {
+                switch (in.nextName())
+                {
+                    case "r":
+                        r = in.nextInt();
+                        break;
+                    case "g":
+                        g = in.nextInt();
+                        break;
+                    case "b":
+                        b = in.nextInt();
+                        break;
+                    case "a":
+                        a = in.nextInt();
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            if (r < 0 || g < 0 || b < 0)
+            {
+                throw new JsonParseException("Color is missing a component" + location(in));
+            }
+            return new Color(r, g, b, a);
+        }
+    }
+
+    private static class RouteNodeAdapter extends TypeAdapter<RouteNode>
+    {
+        private final boolean limited;
+
+        RouteNodeAdapter(boolean limited)
+        {
+            this.limited = limited;
+        }
+
+        @Override
+        public void write(JsonWriter out, RouteNode node) throws IOException
+        {
+            if (node instanceof PointNode)
+            {
+                PointNode point = (PointNode) node;
+                writePoint(out, point.getX(), point.getY(), point.getPlane());
+            }
+            else if (node instanceof LapDividerNode)
+            {
+                LapDividerNode lapDivider = (LapDividerNode) node;
+                writeLapDivider(out, lapDivider.getLapNumber(), lapDivider.getColor());
+            }
+            else
+            {
+                out.beginObject();
+                out.name("type").value(node.getType());
+                out.endObject();
+            }
+        }
+
+        static void writePoint(JsonWriter out, int x, int y, int plane) throws IOException
+        {
+            out.beginObject();
+            out.name("type").value(POINT_TYPE);
+            out.name("x").value(x);
+            out.name("y").value(y);
+            out.name("plane").value(plane);
+            out.endObject();
+        }
+
+        static void writeLapDivider(JsonWriter out, int lapNumber, Color color) throws IOException
+        {
+            out.beginObject();
+            out.name("type").value(LAP_DIVIDER_TYPE);
+            out.name("lapNumber").value(lapNumber);
+            if (color != null)
+            {
+                out.name("color");
+                COLOR_ADAPTER.write(out, color);
+            }
+            out.endObject();
+        }
+
+        @Override
+        public RouteNode read(JsonReader in) throws IOException
+        {
+            // Fields may come in any order, so collect them before building the node
+            String type = null;
+            Integer x = null;
+            Integer y = null;
+            Integer plane = null;
+            Integer lapNumber = null;
+            Color color = null;
+
+            in.beginObject();
+            while (in.hasNext())
+            {
+                switch (in.nextName())
+                {
+                    case "type":
+                        type = in.nextString();
+                        // Reject unknown nodes before reading the rest of them
+                        if (!POINT_TYPE.equals(type) && !LAP_DIVIDER_TYPE.equals(type))
+                        {
+                            throw new JsonParseException("Unknown route node type: " + type + location(in));
+                        }
+                        break;
+                    case "x":
+                        x = in.nextInt();
+                        break;
+                    case "y":
+                        y = in.nextInt();
+                        break;
+                    case "plane":
+                        plane = in.nextInt();
+                        break;
+                    case "lapNumber":
+                        lapNumber = in.nextInt();
+                        break;
+                    case "color":
+                        if (in.peek() == JsonToken.NULL)
+                        {
+                            in.nextNull();
+                        }
+                        else
+                        {
+                            color = COLOR_ADAPTER.read(in);
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            // Check the node before leaving it, so errors point into it
+            RouteNode node;
+            if (POINT_TYPE.equals(type))
+            {
+                if (x == null || y == null || plane == null)
+                {
+                    throw new JsonParseException("Point is missing its position" + location(in));
+                }
+                if (limited)
+                {
+                    check(RouteImportLimits.checkPoint(x, y, plane), in);
+                }
+                node = new PointNode(x, y, plane);
+            }
+            else if (LAP_DIVIDER_TYPE.equals(type))
+            {
+                if (lapNumber == null)
+                {
+                    throw new JsonParseException("Lap divider is missing its lap number" + location(in));
+                }
+                if (limited)
+                {
+                    check(RouteImportLimits.checkLapNumber(lapNumber), in);
+                }
+                node = new LapDividerNode(lapNumber, color);
+            }
+            else
+            {
+                throw new JsonParseException("Route node is missing its type" + location(in));
+            }
+            in.endObject();
+            return node;
+        }
+    }
+
+    private static class RouteAdapter extends TypeAdapter<Route>
+    {
+        private final RouteNodeAdapter nodeAdapter;
+        private final boolean limited;
+
+        RouteAdapter(RouteNodeAdapter nodeAdapter, boolean limited)
+        {
+            this.nodeAdapter = nodeAdapter;
+            this.limited = limited;
+        }
+
+        @Override
+        public void write(JsonWriter out, Route route) throws IOException
+        {
+            out.beginObject();
+            writeString(out, "name", route.getName());
+            writeString(out, "description", route.getDescription());
+            writeString(out, "trialName", route.getTrialName());
+
+            // Read from one snapshot, the route may be edited while it is being written
+            RouteSnapshot snapshot = route.getSnapshot();
+            out.name("route");
+            out.beginArray();
+            for (int i = 0; i < snapshot.getNodeCount(); i++)
+            {
+                if (snapshot.isPoint(i))
+                {
+                    RouteNodeAdapter.writePoint(out, snapshot.getX(i), snapshot.getY(i), snapshot.getPlane(i));
+                }
+                else
+                {
+                    NODE_ADAPTER.write(out, snapshot.getNode(i));
+                }
+            }
+            out.endArray();
+
+            if (route.getFileUuid() != null)
+            {
+                out.name("fileUuid").value(route.getFileUuid().toString());
+            }
+            out.endObject();
+        }
+
+        private static void writeString(JsonWriter out, String name, String value) throws IOException
+        {
+            // Missing values are left out rather than written as null
+            if (value != null)
+            {
+                out.name(name).value(value);
+            }
+        }
+
+        @Override
+        public Route read(JsonReader in) throws IOException
+        {
+            Route route = new Route(null, null, null);
+            boolean hasNodes = false;
+
+            in.beginObject();
+            while (in.hasNext())
+            {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL)
+                {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name)
+                {
+                    case "name":
+                        route.setName(readText(in, name));
+                        break;
+                    case "description":
+                        route.setDescription(readText(in, name));
+                        break;
+                    case "trialName":
+                        route.setTrialName(readText(in, name));
+                        break;
+                    case "fileUuid":
+                        route.setFileUuid(UUID.fromString(in.nextString()));
+                        break;
+                    case "route":
+                        // Collected first so the route publishes one snapshot instead of one per node
+                        List<RouteNode> nodes = new ArrayList<>();
+                        in.beginArray();
+                        while (in.hasNext())
+                        {
+                            if (limited && route.getNodeCount() + nodes.size() >= RouteImportLimits.MAX_NODES)
+                            {
+                                throw new JsonParseException("Route has more than " + RouteImportLimits.MAX_NODES + " nodes" + location(in));
+                            }
+                            nodes.add(nodeAdapter.read(in));
+                        }
+                        in.endArray();
+                        route.addNodes(nodes);
+                        hasNodes = true;
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+
+            if (!hasNodes)
+            {
+                throw new JsonParseException("Route is missing its nodes");
+            }
+            return route;
+        }
+
+        private String readText(JsonReader in, String field) throws IOException
+        {
+            String value = in.nextString();
+            if (limited)
+            {
+                check(RouteImportLimits.checkText(field, value), in);
+            }
+            return value;
+        }
+    }
+}
@@ -2,19 +2,48 @@ package com.barracudaroutes.managers;
 
 import com.barracudaroutes.model.routenodes.PointNode;
 import com.barracudaroutes.model.Route;
+import com.barracudaroutes.model.RouteInfo;
+import com.barracudaroutes.model.RouteSnapshot;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * Holds the route library and the route being shown or edited.
+ * The library is listed from route metadata, and a route's nodes are only loaded once it is selected or
+ * edited. The most recently used routes stay loaded, along with any route that has unsaved changes.
+ * Routes are loaded in the background, so the library may be read and added to from any thread.
+ * The library is indexed by name and by content, so imports can pick unique names and recognise
+ * routes that are already in the library without scanning it. Edits only refresh a route's name and trial
+ * right away, its point counts and content hash are refreshed when the route is written in the background.
+ */
 @Singleton
 public class RouteManager
 {
-    private final List<Route> routes = new ArrayList<>();
-    private Route active = null;
-    private PointNode selectedTile = null;
-    private boolean inEditMode = false;
+    private static final int MAX_LOADED_ROUTES = 8;
+    
+    private final Map<UUID, RouteInfo> library = new LinkedHashMap<>(); // Guarded by itself
+    private final Map<UUID, Route> loadedRoutes = new LinkedHashMap<>(16, 0.75f, true); // Guarded by library, least recently used first
+    private final Map<String, Integer> routeNameCounts = new HashMap<>(); // Guarded by library
+    private final Map<String, Integer> nextNameSuffixes = new HashMap<>(); // Guarded by library, where to resume looking for a free copy name
+    private final Map<Long, Set<UUID>> routesByContent = new HashMap<>(); // Guarded by library
+    private final List<Runnable> routeListeners = new CopyOnWriteArrayList<>();
+    private int loadGeneration = 0; // Guarded by library
+    private volatile Route active = null;
+    private volatile PointNode selectedTile = null;
+    private volatile boolean inEditMode = false;
     
     private final RoutePersistenceManager persistenceManager;
     
@@ -22,32 +51,167 @@ public class RouteManager
     public RouteManager(RoutePersistenceManager persistenceManager)
     {
         this.persistenceManager = persistenceManager;
+        persistenceManager.setSaveListener(this::onRouteSaved);
     }
     
     /**
-     * Load all routes from disk
+     * List all routes on disk in the background. Route listeners are notified as routes come in.
      */
     public void loadRoutes()
     {
-        routes.clear();
-        routes.addAll(persistenceManager.loadAllRoutes());
+        int generation;
+        synchronized (library)
+        {
+            generation = ++loadGeneration;
+            library.clear();
+            loadedRoutes.clear();
+            routeNameCounts.clear();
+            nextNameSuffixes.clear();
+            routesByContent.clear();
+        }
+        notifyRouteListeners();
+        
+        persistenceManager.loadAllRoutes(info -> {
+            synchronized (library)
+            {
+                // Drop routes from a load that has been started over
+                if (generation != loadGeneration)
+                {
+                    return;
+                }
+                putLibraryEntry(info);
+            }
+            notifyRouteListeners();
+        });
+    }
+    
+    /**
+     * Get a route with its nodes, loading it in the background if it isn't loaded already
+     *
+     * @return a future with the route, or null if it could not be loaded
+     */
+    public CompletableFuture<Route> loadRoute(RouteInfo info)
+    {
+        synchronized (library)
+        {
+            Route route = loadedRoutes.get(info.getUuid());
+            if (route != null)
+            {
+                return CompletableFuture.completedFuture(route);
+            }
+        }
+        
+        return persistenceManager.loadRoute(info).thenApply(route -> {
+            if (route == null)
+            {
+                return null;
+            }
+            synchronized (library)
+            {
+                // Another load of the same route may have finished first, keep the one already in use
+                Route loaded = loadedRoutes.putIfAbsent(route.getFileUuid(), route);
+                if (loaded != null)
+                {
+                    return loaded;
+                }
+                evictLoadedRoutes();
+            }
+            return route;
+        });
+    }
+    
+    /**
+     * Unload the least recently used routes over the limit, keeping the active route and routes with
+     * changes still to be written
+     */
+    private void evictLoadedRoutes()
+    {
+        int excess = loadedRoutes.size() - MAX_LOADED_ROUTES;
+        Iterator<Route> it = loadedRoutes.values().iterator();
+        while (excess > 0 && it.hasNext())
+        {
+            Route route = it.next();
+            if (route != active && !persistenceManager.hasPendingChanges(route))
+            {
+                it.remove();
+                excess--;
+            }
+        }
+    }
+    
+    /**
+     * Add a listener that is run whenever routes are loaded, on the loading thread
+     */
+    public void addRouteListener(Runnable listener)
+    {
+        routeListeners.add(listener);
+    }
+    
+    public void removeRouteListener(Runnable listener)
+    {
+        routeListeners.remove(listener);
+    }
+    
+    private void notifyRouteListeners()
+    {
+        for (Runnable listener : routeListeners)
+        {
+            listener.run();
+        }
     }
 
-    public List<Route> getAllRoutes()
+    public List<RouteInfo> getAllRoutes()
+    {
+        synchronized (library)
+        {
+            return new ArrayList<>(library.values());
+        }
+    }
+    
+    public RouteInfo getRouteInfo(Route r)
     {
-        return new ArrayList<>(routes);
+        synchronized (library)
+        {
+            return r.getFileUuid() != null ? library.get(r.getFileUuid()) : null;
+        }
+    }
+    
+    /**
+     * Check if a route is in the library
+     */
+    public boolean hasRoute(Route r)
+    {
+        return getRouteInfo(r) != null;
     }
 
     public void addRoute(Route r)
     {
-        routes.add(r);
+        // The library knows routes by UUID, so give a new route its UUID now rather than on its first save
+        if (r.getFileUuid() == null)
+        {
+            r.setFileUuid(UUID.randomUUID());
+        }
+        RouteInfo info = RouteInfo.of(r, null);
+        synchronized (library)
+        {
+            putLibraryEntry(info);
+            loadedRoutes.put(r.getFileUuid(), r);
+            evictLoadedRoutes();
+        }
         // Save to disk
-        persistenceManager.saveRoute(r);
+        persistenceManager.saveRouteLater(r);
     }
 
     public void removeRoute(Route r)
     {
-        routes.remove(r);
+        synchronized (library)
+        {
+            if (r.getFileUuid() != null)
+            {
+                removeLibraryEntry(r.getFileUuid());
+                loadedRoutes.remove(r.getFileUuid());
+            }
+        }
         if (active == r)
         {
             active = null;
@@ -57,12 +221,231 @@ public class RouteManager
     }
     
     /**
-     * Update a route (save to disk)
+     * Remove a route that may not be loaded
+     */
+    public void removeRoute(RouteInfo info)
+    {
+        Route route;
+        synchronized (library)
+        {
+            removeLibraryEntry(info.getUuid());
+            route = loadedRoutes.remove(info.getUuid());
+        }
+        if (route != null)
+        {
+            if (active == route)
+            {
+                active = null;
+            }
+            persistenceManager.deleteRoute(route);
+        }
+        else
+        {
+            persistenceManager.deleteRoute(info);
+        }
+    }
+    
+    /**
+     * Update a route (saved to disk in the background once edits pause)
      */
     public void updateRoute(Route r)
     {
+        updateRouteInfo(r);
         // Save to disk
-        persistenceManager.saveRoute(r);
+        persistenceManager.saveRouteLater(r);
+    }
+    
+    /**
+     * Refresh the name and trial of a route's library entry after it was edited. The rest of the entry
+     * takes a pass over all nodes, so it is left to the background save.
+     */
+    private void updateRouteInfo(Route r)
+    {
+        synchronized (library)
+        {
+            RouteInfo info = r.getFileUuid() != null ? library.get(r.getFileUuid()) : null;
+            if (info != null && (!Objects.equals(info.getName(), r.getName()) || !Objects.equals(info.getTrialName(), r.getTrialName())))
+            {
+                putLibraryEntry(info.withNames(r.getName(), r.getTrialName()));
+            }
+        }
+    }
+    
+    /**
+     * Take the metadata worked out while saving a route, on the persistence thread
+     */
+    private void onRouteSaved(RouteInfo info)
+    {
+        synchronized (library)
+        {
+            // The route may have been removed while it was being written
+            if (!library.containsKey(info.getUuid()))
+            {
+                return;
+            }
+            putLibraryEntry(info);
+        }
+        notifyRouteListeners();
+    }
+    
+    /**
+     * Add or replace a library entry, keeping the name and content indexes up to date. Must hold the library lock.
+     */
+    private void putLibraryEntry(RouteInfo info)
+    {
+        removeLibraryEntry(info.getUuid());
+        library.put(info.getUuid(), info);
+        routeNameCounts.merge(String.valueOf(info.getName()), 1, Integer::sum);
+        routesByContent.computeIfAbsent(info.getContentHash(), k -> new LinkedHashSet<>()).add(info.getUuid());
+    }
+    
+    /**
+     * Remove a library entry, keeping the name and content indexes up to date. Must hold the library lock.
+     */
+    private void removeLibraryEntry(UUID uuid)
+    {
+        RouteInfo info = library.remove(uuid);
+        if (info == null)
+        {
+            return;
+        }
+        routeNameCounts.computeIfPresent(String.valueOf(info.getName()), (name, count) -> count > 1 ? count - 1 : null);
+        Set<UUID> sameContent = routesByContent.get(info.getContentHash());
+        if (sameContent != null && sameContent.remove(uuid) && sameContent.isEmpty())
+        {
+            routesByContent.remove(info.getContentHash());
+        }
+    }
+    
+    /**
+     * Find a route in the library with the same trial and nodes as the given route. Routes with the same
+     * content hash are loaded and compared node by node, so a hash collision isn't taken for a copy.
+     *
+     * @return a future with the route already in the library, or null if there is none
+     */
+    public CompletableFuture<RouteInfo> findSameRoute(Route r)
+    {
+        long contentHash = RouteInfo.of(r, null).getContentHash();
+        List<RouteInfo> candidates = new ArrayList<>();
+        synchronized (library)
+        {
+            Set<UUID> sameContent = routesByContent.get(contentHash);
+            for (UUID uuid : sameContent != null ? sameContent : Set.<UUID>of())
+            {
+                if (!uuid.equals(r.getFileUuid()))
+                {
+                    candidates.add(library.get(uuid));
+                }
+            }
+        }
+        
+        CompletableFuture<RouteInfo> found = CompletableFuture.completedFuture(null);
+        for (RouteInfo candidate : candidates)
+        {
+            found = found.thenCompose(match -> match != null
+                ? CompletableFuture.completedFuture(match)
+                : loadRoute(candidate).thenApply(route -> route != null && hasSameContent(r, route) ? candidate : null));
+        }
+        return found;
+    }
+    
+    private static boolean hasSameContent(Route a, Route b)
+    {
+        RouteSnapshot x = a.getSnapshot();
+        RouteSnapshot y = b.getSnapshot();
+        if (!Objects.equals(a.getTrialName(), b.getTrialName()) || x.getNodeCount() != y.getNodeCount())
+        {
+            return false;
+        }
+        for (int i = 0; i < x.getNodeCount(); i++)
+        {
+            if (x.isLapDivider(i) != y.isLapDivider(i))
+            {
+                return false;
+            }
+            boolean same = x.isLapDivider(i)
+                ? x.getLapNumber(i) == y.getLapNumber(i)
+                : x.getX(i) == y.getX(i) && x.getY(i) == y.getY(i) && x.getPlane(i) == y.getPlane(i);
+            if (!same)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Add an imported route, renaming it with a counter if a route with its name already exists
+     *
+     * @return the name the route was added under
+     */
+    public String addImportedRoute(Route r)
+    {
+        synchronized (library)
+        {
+            String name = r.getName();
+            if (routeNameCounts.containsKey(name))
+            {
+                int counter = nextNameSuffixes.getOrDefault(name, 1);
+                while (routeNameCounts.containsKey(name + " (" + counter + ")"))
+                {
+                    counter++;
+                }
+                nextNameSuffixes.put(name, counter + 1);
+                r.setName(name + " (" + counter + ")");
+            }
+            addRoute(r);
+            return r.getName();
+        }
+    }
+    
+    /**
+     * Start journaling nodes recorded into a route, so each recorded node is a cheap append
+     */
+    public void startJournal(Route r)
+    {
+        persistenceManager.startJournal(r);
+    }
+    
+    /**
+     * Save the nodes appended to a route from fromIndex onwards
+     */
+    public void appendToJournal(Route r, int fromIndex)
+    {
+        persistenceManager.appendToJournal(r, fromIndex);
+    }
+    
+    /**
+     * Save a journaled route in full, after it was edited other than by appending
+     */
+    public void checkpointJournal(Route r)
+    {
+        persistenceManager.checkpointJournal(r);
+    }
+    
+    /**
+     * Stop journaling a route, writing it to its route file
+     */
+    public void stopJournal(Route r)
+    {
+        updateRouteInfo(r);
+        persistenceManager.stopJournal(r);
+    }
+    
+    /**
+     * Start writing all pending route changes to disk without waiting
+     */
+    public void flush()
+    {
+        persistenceManager.flush();
+    }
+    
+    /**
+     * Write all pending route changes to disk, blocking until done
+     */
+    public void flushAndWait()
+    {
+        persistenceManager.flushAndWait();
     }
 
     public Route getActiveRoute()
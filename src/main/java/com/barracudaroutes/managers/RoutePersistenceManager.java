@@ -1,141 +1,118 @@
 package com.barracudaroutes.managers;
 
-import com.barracudaroutes.model.routenodes.LapDividerNode;
-import com.barracudaroutes.model.routenodes.PointNode;
+import com.barracudaroutes.BarracudaRoutesConfig;
+import com.barracudaroutes.RouteFileFormat;
 import com.barracudaroutes.model.Route;
-import com.barracudaroutes.model.routenodes.RouteNode;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
+import com.barracudaroutes.model.RouteInfo;
+import com.barracudaroutes.model.RouteSnapshot;
 import lombok.extern.slf4j.Slf4j;
 
 import net.runelite.client.RuneLite;
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.awt.Color;
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
- * Manages persistence of routes to JSON files in the barracuda-routes directory.
- * Routes are organized by trial in separate subdirectories.
+ * Manages persistence of routes to files in the barracuda-routes directory.
+ * Routes are organized by trial in separate subdirectories, and saved as JSON or in a compact
+ * binary format depending on the config. Files in either format are loaded.
+ * Saves are written behind on a background thread: edits mark a route dirty, and dirty routes are
+ * written once edits have paused for a moment, so bursts of edits share a single write.
+ * Each write goes to a temp file that is synced and then moved over the route file, so a crash
+ * mid-write leaves the previous version intact. The previous version can be kept as a .bak file,
+ * which is loaded instead when the route file can't be read.
+ * While a route is being recorded, recorded nodes are appended to a journal next to the route file
+ * instead of rewriting the whole file. The journal is compacted into the route file when recording
+ * stops, or on the next load if the client went down first.
  */
 @Slf4j
 @Singleton
 public class RoutePersistenceManager
 {
     private static final String ROUTES_DIR = "barracuda-routes";
-    private final Gson gson;
+    private static final long SAVE_DEBOUNCE_MS = 2000; // Write once edits have paused this long
+    private static final long SAVE_MAX_DELAY_MS = 30000; // But never hold back a dirty route longer than this
+    private static final String BACKUP_SUFFIX = ".bak";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String INDEX_FILE = "routes.cache";
+    private final BarracudaRoutesConfig config;
     
-    // Custom serializer/deserializer for Color
-    private static class ColorAdapter implements JsonSerializer<Color>, JsonDeserializer<Color>
-    {
-        @Override
-        public JsonElement serialize(Color src, Type typeOfSrc, JsonSerializationContext context)
-        {
-            JsonObject obj = new JsonObject();
-            obj.addProperty("r", src.getRed());
-            obj.addProperty("g", src.getGreen());
-            obj.addProperty("b", src.getBlue());
-            obj.addProperty("a", src.getAlpha());
-            return obj;
-        }
-        
-        @Override
-        public Color deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
-                throws JsonParseException
-        {
-            JsonObject obj = json.getAsJsonObject();
-            int r = obj.get("r").getAsInt();
-            int g = obj.get("g").getAsInt();
-            int b = obj.get("b").getAsInt();
-            int a = obj.has("a") ? obj.get("a").getAsInt() : 255;
-            return new Color(r, g, b, a);
-        }
-    }
+    // Write-behind state. All file I/O happens on the executor thread, in submission order.
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "barracuda-routes-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<Route> dirtyRoutes = ConcurrentHashMap.newKeySet();
+    private final Object saveLock = new Object();
+    private ScheduledFuture<?> scheduledSave; // Guarded by saveLock
+    private long firstDirtyAt; // Guarded by saveLock
+    private long lastDirtyAt; // Guarded by saveLock
+    private final Map<Route, RouteJournal> journals = new ConcurrentHashMap<>();
+    private final RouteIndex index;
+    private volatile Consumer<RouteInfo> saveListener = info -> {};
     
-    // Custom serializer/deserializer for RouteNode
-    private static class RouteNodeAdapter implements JsonSerializer<RouteNode>, JsonDeserializer<RouteNode>
+    // Loading parses route files in parallel, on threads that exit once loading is done
+    private final ThreadPoolExecutor loadExecutor;
+    
+    @Inject
+    public RoutePersistenceManager(BarracudaRoutesConfig config)
     {
-        private final ColorAdapter colorAdapter = new ColorAdapter();
+        this.config = config;
         
-        @Override
-        public JsonElement serialize(RouteNode src, Type typeOfSrc, JsonSerializationContext context)
-        {
-            JsonObject obj = new JsonObject();
-            obj.addProperty("type", src.getType());
-            
-            if (src instanceof PointNode)
-            {
-                PointNode point = (PointNode) src;
-                obj.addProperty("x", point.getX());
-                obj.addProperty("y", point.getY());
-                obj.addProperty("plane", point.getPlane());
-            }
-            else if (src instanceof LapDividerNode)
-            {
-                LapDividerNode lapDivider = (LapDividerNode) src;
-                obj.addProperty("lapNumber", lapDivider.getLapNumber());
-                if (lapDivider.getColor() != null)
-                {
-                    obj.add("color", colorAdapter.serialize(lapDivider.getColor(), Color.class, context));
-                }
-            }
-            
-            return obj;
-        }
-        
-        @Override
-        public RouteNode deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
-                throws JsonParseException
-        {
-            JsonObject obj = json.getAsJsonObject();
-            String type = obj.get("type").getAsString();
-            
-            if ("point".equals(type))
-            {
-                int x = obj.get("x").getAsInt();
-                int y = obj.get("y").getAsInt();
-                int plane = obj.get("plane").getAsInt();
-                return new PointNode(x, y, plane);
-            }
-            else if ("lapDivider".equals(type))
-            {
-                int lapNumber = obj.get("lapNumber").getAsInt();
-                Color color = null;
-                if (obj.has("color"))
-                {
-                    color = colorAdapter.deserialize(obj.get("color"), Color.class, context);
-                }
-                return new LapDividerNode(lapNumber, color);
-            }
-            
-            throw new JsonParseException("Unknown route node type: " + type);
-        }
+        AtomicInteger loadThreads = new AtomicInteger();
+        int threadCount = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        this.loadExecutor = new ThreadPoolExecutor(threadCount, threadCount, 5, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "barracuda-routes-load-" + loadThreads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.loadExecutor.allowCoreThreadTimeOut(true);
+        this.index = new RouteIndex(getRoutesDir(), getRoutesDir().resolve(INDEX_FILE));
     }
     
-    @Inject
-    public RoutePersistenceManager()
+    /**
+     * Set the listener that is given a route's up to date metadata whenever the route is written, on the persistence thread
+     */
+    public void setSaveListener(Consumer<RouteInfo> listener)
     {
-        GsonBuilder builder = new GsonBuilder();
-        builder.setPrettyPrinting();
-        builder.registerTypeAdapter(Color.class, new ColorAdapter());
-        builder.registerTypeAdapter(RouteNode.class, new RouteNodeAdapter());
-        this.gson = builder.create();
+        saveListener = listener;
     }
     
     /**
@@ -169,89 +146,439 @@ public class RoutePersistenceManager
     }
     
     /**
-     * Generate a filename for a route: <Route_Name>_<UUID>.json
+     * Generate the filename for a route without its extension: <Route_Name>_<UUID>
      */
-    private String generateFileName(String routeName, UUID uuid)
+    private String generateBaseName(String routeName, UUID uuid)
     {
         String sanitized = sanitizeFileName(routeName);
-        return sanitized + "_" + uuid.toString() + ".json";
+        return sanitized + "_" + uuid.toString();
     }
     
     /**
-     * Load all routes from the barracuda-routes directory
+     * Get the base name of a route file or route backup file, or null if it isn't one
      */
-    public List<Route> loadAllRoutes()
+    private static String getRouteBaseName(String fileName)
     {
-        List<Route> routes = new ArrayList<>();
-        Path routesDir = getRoutesDir();
-        
-        if (!Files.exists(routesDir))
+        String name = fileName.endsWith(BACKUP_SUFFIX)
+            ? fileName.substring(0, fileName.length() - BACKUP_SUFFIX.length())
+            : fileName;
+        for (RouteFileFormat format : RouteFileFormat.values())
         {
-            log.debug("Routes directory does not exist: {}", routesDir);
-            return routes;
+            if (name.endsWith(format.getExtension()))
+            {
+                return name.substring(0, name.length() - format.getExtension().length());
+            }
         }
-        
-        try
-        {
-            // Iterate through trial directories
-            Files.list(routesDir).forEach(trialPath -> {
-                if (Files.isDirectory(trialPath))
+        return null;
+    }
+    
+    /**
+     * List all routes in the barracuda-routes directory in the background.
+     * Routes are described from the index where their file hasn't changed since, and other route files are
+     * parsed in parallel. Each route is passed to the consumer on a loading thread as soon as it is known,
+     * so callers see routes while the rest are still loading.
+     *
+     * @return a future that completes once every route has been listed
+     */
+    public CompletableFuture<Void> loadAllRoutes(Consumer<RouteInfo> consumer)
+    {
+        Path routesDir = getRoutesDir();
+        Set<UUID> loaded = ConcurrentHashMap.newKeySet();
+        Set<UUID> indexedBefore = ConcurrentHashMap.newKeySet();
+        AtomicInteger parsed = new AtomicInteger();
+        return CompletableFuture.supplyAsync(() -> {
+                index.load();
+                indexedBefore.addAll(index.getUuids());
+                return findRouteFiles(routesDir);
+            }, loadExecutor)
+            .thenCompose(routeFiles -> {
+                Map<Path, RouteInfo> indexed = index.getByPath();
+                return CompletableFuture.allOf(routeFiles.stream()
+                    .map(files -> CompletableFuture.runAsync(() -> {
+                        RouteInfo info = indexed.get(files.getPrimaryPath());
+                        if (info == null || files.journalPath != null || !isUnchanged(info))
+                        {
+                            parsed.incrementAndGet();
+                            info = loadRouteInfo(files);
+                        }
+                        if (info != null && loaded.add(info.getUuid()))
+                        {
+                            consumer.accept(info);
+                        }
+                    }, loadExecutor))
+                    .toArray(CompletableFuture[]::new));
+            })
+            .whenComplete((result, e) -> {
+                if (e != null)
                 {
-                    try
+                    log.error("Failed to load routes from directory: {}", routesDir, e);
+                    return;
+                }
+                // Forget routes whose files are gone. Routes saved while loading were not in the index before.
+                for (UUID uuid : indexedBefore)
+                {
+                    RouteInfo info = index.get(uuid);
+                    if (!loaded.contains(uuid) && info != null && !Files.exists(info.getPath()))
                     {
-                        // Load all JSON files in this trial directory
-                        Files.list(trialPath)
-                                .filter(path -> path.toString().endsWith(".json"))
-                                .forEach(jsonPath -> {
-                                    try
-                                    {
-                                        Route route = loadRouteFromFile(jsonPath.toFile());
-                                        if (route != null)
-                                        {
-                                            routes.add(route);
-                                        }
-                                    }
-                                    catch (Exception e)
-                                    {
-                                        log.error("Failed to load route from file: {}", jsonPath, e);
-                                    }
-                                });
+                        index.remove(uuid);
                     }
-                    catch (IOException e)
+                }
+                executor.execute(index::saveIfChanged);
+                log.info("Loaded {} routes from {}, {} route files read", loaded.size(), routesDir, parsed.get());
+            });
+    }
+    
+    /**
+     * Read a route's nodes in the background, from the index while the route file is unchanged,
+     * otherwise from the route file
+     *
+     * @return a future with the route, or null if it could not be read
+     */
+    public CompletableFuture<Route> loadRoute(RouteInfo info)
+    {
+        return CompletableFuture.supplyAsync(() -> {
+            // The index knows where the route was last saved, the entry may be from before a rename
+            RouteInfo current = index.get(info.getUuid());
+            byte[] payload = current != null && isUnchanged(current) ? index.readPayload(info.getUuid()) : null;
+            if (payload != null)
+            {
+                try
+                {
+                    Route route = RouteBinaryCodec.read(payload);
+                    route.setFileUuid(current.getUuid());
+                    return route;
+                }
+                catch (IOException e)
+                {
+                    log.warn("Failed to read route {} from the index, reading its file instead", info.getName(), e);
+                }
+            }
+            
+            Path path = current != null ? current.getPath() : info.getPath();
+            if (path == null)
+            {
+                log.warn("Route {} has never been saved, there is nothing to load", info.getName());
+                return null;
+            }
+            
+            RouteFiles routeFiles = new RouteFiles(getRouteBaseName(path.getFileName().toString()));
+            for (RouteFileFormat format : RouteFileFormat.values())
+            {
+                Path filePath = path.resolveSibling(routeFiles.baseName + format.getExtension());
+                for (Path candidate : new Path[]{filePath, getBackupPath(filePath)})
+                {
+                    if (Files.exists(candidate))
                     {
-                        log.error("Failed to list files in trial directory: {}", trialPath, e);
+                        routeFiles.paths.add(candidate);
                     }
                 }
-            });
+            }
+            return loadRoute(routeFiles);
+        }, loadExecutor);
+    }
+    
+    /**
+     * Check if a route has changes that are not in its route file yet
+     */
+    public boolean hasPendingChanges(Route route)
+    {
+        return dirtyRoutes.contains(route) || journals.containsKey(route);
+    }
+    
+    private static boolean isUnchanged(RouteInfo info)
+    {
+        try
+        {
+            return Files.size(info.getPath()) == info.getSize() && getLastModified(info.getPath()) == info.getLastModified();
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+    
+    /**
+     * Describe a route by reading it, and remember the description in the index
+     */
+    private RouteInfo loadRouteInfo(RouteFiles routeFiles)
+    {
+        Route route = loadRoute(routeFiles);
+        if (route == null)
+        {
+            return null;
+        }
+        if (routeFiles.saved)
+        {
+            // Recovering the journal wrote a new route file, which is already in the index
+            return index.get(route.getFileUuid());
+        }
+        
+        Path path = routeFiles.loadedPath;
+        RouteInfo info;
+        try
+        {
+            info = RouteInfo.of(route, path, getLastModified(path), Files.size(path));
+        }
+        catch (IOException e)
+        {
+            info = RouteInfo.of(route, path, 0, 0);
+        }
+        index.put(info, encodeForIndex(route));
+        return info;
+    }
+    
+    /**
+     * Encode a route in the binary format, or get null if it has planes or lap numbers the format can't hold
+     */
+    private static byte[] encodeForIndex(Route route)
+    {
+        try
+        {
+            return RouteBinaryCodec.write(route);
+        }
+        catch (IOException e)
+        {
+            log.warn("Route {} can't be stored in the binary format: {}", route.getName(), e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * The files a route may be loaded from
+     */
+    private static class RouteFiles
+    {
+        final String baseName;
+        final List<Path> paths = new ArrayList<>(); // Route and backup files, in either format
+        Path journalPath;
+        Path loadedPath; // The file the route was read from
+        boolean saved; // Whether the route was written back after recovering its journal
+        
+        RouteFiles(String baseName)
+        {
+            this.baseName = baseName;
+        }
+        
+        /**
+         * Sort the paths so route files come before backups, and the newest first in case a save
+         * switching formats was cut short
+         */
+        Path getPrimaryPath()
+        {
+            paths.sort(Comparator.comparing((Path path) -> path.toString().endsWith(BACKUP_SUFFIX))
+                .thenComparing(RoutePersistenceManager::getLastModified, Comparator.reverseOrder()));
+            return paths.get(0);
+        }
+    }
+    
+    /**
+     * List the route files in every trial directory, grouped by route
+     */
+    private List<RouteFiles> findRouteFiles(Path routesDir)
+    {
+        List<RouteFiles> routeFiles = new ArrayList<>();
+        if (!Files.exists(routesDir))
+        {
+            log.debug("Routes directory does not exist: {}", routesDir);
+            return routeFiles;
+        }
+        
+        List<Path> trialPaths;
+        try (Stream<Path> paths = Files.list(routesDir))
+        {
+            trialPaths = paths.filter(Files::isDirectory).collect(Collectors.toList());
         }
         catch (IOException e)
         {
             log.error("Failed to load routes from directory: {}", routesDir, e);
+            return routeFiles;
+        }
+        
+        // Iterate through trial directories
+        for (Path trialPath : trialPaths)
+        {
+            findTrialRouteFiles(trialPath, routeFiles);
+        }
+        return routeFiles;
+    }
+    
+    private void findTrialRouteFiles(Path trialPath, List<RouteFiles> routeFiles)
+    {
+        List<Path> files;
+        try (Stream<Path> paths = Files.list(trialPath))
+        {
+            files = paths.collect(Collectors.toList());
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to list files in trial directory: {}", trialPath, e);
+            return;
         }
         
-        log.info("Loaded {} routes from {}", routes.size(), routesDir);
-        return routes;
+        Map<String, Path> journalPaths = new HashMap<>(); // Route UUID -> journal
+        Map<String, RouteFiles> trialRouteFiles = new LinkedHashMap<>(); // Base name -> files
+        for (Path path : files)
+        {
+            String fileName = path.getFileName().toString();
+            String baseName = getRouteBaseName(fileName);
+            if (baseName != null)
+            {
+                trialRouteFiles.computeIfAbsent(baseName, RouteFiles::new).paths.add(path);
+            }
+            else if (fileName.endsWith(RouteJournal.SUFFIX))
+            {
+                journalPaths.put(fileName.substring(0, fileName.length() - RouteJournal.SUFFIX.length()), path);
+            }
+            else if (fileName.endsWith(TEMP_SUFFIX))
+            {
+                // Left over from a save that never finished, the route file still has the previous version
+                deleteFile(path);
+            }
+        }
+        
+        // Journals are left behind when the client stopped during a recording
+        for (RouteFiles routeFile : trialRouteFiles.values())
+        {
+            String uuid = routeFile.baseName.substring(routeFile.baseName.lastIndexOf('_') + 1);
+            routeFile.journalPath = journalPaths.remove(uuid);
+        }
+        for (Path journalPath : journalPaths.values())
+        {
+            // The route was never saved, or has moved to another trial since
+            log.warn("Deleting route journal without a route file: {}", journalPath);
+            deleteFile(journalPath);
+        }
+        routeFiles.addAll(trialRouteFiles.values());
+    }
+    
+    /**
+     * Load a route from its route file, falling back to the backup if the route file can't be read
+     */
+    private Route loadRoute(RouteFiles routeFiles)
+    {
+        if (routeFiles.paths.isEmpty())
+        {
+            return null;
+        }
+        routeFiles.getPrimaryPath();
+        for (Path path : routeFiles.paths)
+        {
+            Route route = loadRouteFromFile(path, routeFiles.baseName);
+            if (route == null)
+            {
+                continue;
+            }
+            if (path.toString().endsWith(BACKUP_SUFFIX))
+            {
+                // A crash between the two moves of a save can leave only the backup behind
+                log.warn("Route file for {} is missing or damaged, loaded its backup instead", path);
+            }
+            routeFiles.loadedPath = path;
+            if (routeFiles.journalPath != null)
+            {
+                routeFiles.saved = compactJournal(route, routeFiles.journalPath);
+            }
+            return route;
+        }
+        return null;
+    }
+    
+    /**
+     * Apply a journal to its route, write the route file and delete the journal. Like every other write
+     * this runs on the persistence thread, the loading thread waits for it.
+     *
+     * @return whether the route file was written
+     */
+    private boolean compactJournal(Route route, Path journalPath)
+    {
+        try
+        {
+            return executor.submit(() -> compactJournalNow(route, journalPath)).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            log.error("Failed to compact route journal: {}", journalPath, e.getCause());
+        }
+        return false;
+    }
+    
+    private boolean compactJournalNow(Route route, Path journalPath)
+    {
+        try
+        {
+            int added = RouteJournal.replay(journalPath, route);
+            deleteFile(journalPath);
+            if (added > 0)
+            {
+                log.info("Recovered {} recorded nodes for route {} from its journal", added, route.getName());
+                return saveRoute(route);
+            }
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to replay route journal: {}", journalPath, e);
+        }
+        return false;
+    }
+    
+    private static void deleteFile(Path path)
+    {
+        try
+        {
+            Files.deleteIfExists(path);
+        }
+        catch (IOException e)
+        {
+            log.warn("Failed to delete file: {}", path, e);
+        }
+    }
+    
+    private static long getLastModified(Path path)
+    {
+        try
+        {
+            return Files.getLastModifiedTime(path).toMillis();
+        }
+        catch (IOException e)
+        {
+            return 0;
+        }
     }
     
     /**
-     * Load a single route from a JSON file
+     * Load a single route from a JSON or binary file
      */
-    private Route loadRouteFromFile(File file)
+    private Route loadRouteFromFile(Path path, String baseName)
     {
-        try (FileReader reader = new FileReader(file))
+        try
         {
-            Route route = gson.fromJson(reader, Route.class);
+            // Detect the format from the contents, a backup may be from before the format was switched
+            byte[] data = Files.readAllBytes(path);
+            Route route;
+            if (RouteBinaryCodec.isBinaryRoute(data))
+            {
+                route = RouteBinaryCodec.read(data);
+            }
+            else
+            {
+                try (Reader reader = new InputStreamReader(new ByteArrayInputStream(data)))
+                {
+                    route = RouteJsonCodec.read(reader);
+                }
+            }
             
             // Extract UUID from filename if not already set
             if (route.getFileUuid() == null)
             {
-                String fileName = file.getName();
-                // Extract UUID from filename: <Route_Name>_<UUID>.json
-                int lastUnderscore = fileName.lastIndexOf('_');
-                int lastDot = fileName.lastIndexOf('.');
-                if (lastUnderscore > 0 && lastDot > lastUnderscore)
+                // Extract UUID from filename: <Route_Name>_<UUID>
+                int lastUnderscore = baseName.lastIndexOf('_');
+                if (lastUnderscore > 0)
                 {
-                    String uuidStr = fileName.substring(lastUnderscore + 1, lastDot);
+                    String uuidStr = baseName.substring(lastUnderscore + 1);
                     try
                     {
                         UUID uuid = UUID.fromString(uuidStr);
@@ -259,25 +586,29 @@ public class RoutePersistenceManager
                     }
                     catch (IllegalArgumentException e)
                     {
-                        log.warn("Could not parse UUID from filename: {}", fileName);
+                        log.warn("Could not parse UUID from filename: {}", path.getFileName());
                     }
                 }
             }
+            if (route.getFileUuid() == null)
+            {
+                // The library knows routes by UUID, the route file is renamed on its next save
+                route.setFileUuid(UUID.randomUUID());
+            }
             
             return route;
         }
         catch (Exception e)
         {
-            log.error("Failed to load route from file: {}", file, e);
+            log.error("Failed to load route from file: {}", path, e);
             return null;
         }
     }
     
     /**
-     * Save a route to a JSON file
-     * Only saves if the route has a name set
+     * Mark a route as changed. It is written on the persistence thread once edits pause.
      */
-    public void saveRoute(Route route)
+    public void saveRouteLater(Route route)
     {
         if (route == null)
         {
@@ -285,11 +616,108 @@ public class RoutePersistenceManager
             return;
         }
         
+        dirtyRoutes.add(route);
+        synchronized (saveLock)
+        {
+            long now = System.currentTimeMillis();
+            lastDirtyAt = now;
+            if (scheduledSave == null)
+            {
+                firstDirtyAt = now;
+                scheduledSave = executor.schedule(this::saveIfSettled, SAVE_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+    
+    /**
+     * Write dirty routes if edits have paused, otherwise wait a little longer
+     */
+    private void saveIfSettled()
+    {
+        synchronized (saveLock)
+        {
+            long now = System.currentTimeMillis();
+            long quietFor = now - lastDirtyAt;
+            long dirtyFor = now - firstDirtyAt;
+            if (quietFor < SAVE_DEBOUNCE_MS && dirtyFor < SAVE_MAX_DELAY_MS)
+            {
+                long delay = Math.min(SAVE_DEBOUNCE_MS - quietFor, SAVE_MAX_DELAY_MS - dirtyFor);
+                scheduledSave = executor.schedule(this::saveIfSettled, delay, TimeUnit.MILLISECONDS);
+                return;
+            }
+            scheduledSave = null;
+        }
+        saveDirtyRoutes();
+    }
+    
+    private void saveDirtyRoutes()
+    {
+        for (Route route : dirtyRoutes)
+        {
+            // Clear the flag before writing, so an edit made during the write marks the route dirty again
+            if (dirtyRoutes.remove(route))
+            {
+                saveRoute(route);
+            }
+        }
+    }
+    
+    /**
+     * Write all dirty routes now, without waiting for edits to pause
+     *
+     * @return a future that completes once the routes are written
+     */
+    public Future<?> flush()
+    {
+        return executor.submit(this::saveDirtyRoutes);
+    }
+    
+    /**
+     * Write all dirty routes and wait for the writes to finish, for use when the plugin shuts down.
+     * Routes that are still being recorded are compacted and their journals closed.
+     */
+    public void flushAndWait()
+    {
+        try
+        {
+            executor.submit(() -> {
+                saveDirtyRoutes();
+                for (Route route : journals.keySet())
+                {
+                    stopJournalNow(route);
+                }
+                index.saveIfChanged();
+            }).get(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (Exception e)
+        {
+            log.error("Failed to flush pending route saves", e);
+        }
+    }
+    
+    /**
+     * Save a route to a file in the configured format immediately, on the calling thread
+     * Only saves if the route has a name set
+     *
+     * @return whether the route file was written
+     */
+    public boolean saveRoute(Route route)
+    {
+        if (route == null)
+        {
+            log.warn("Attempted to save null route");
+            return false;
+        }
+        
         String routeName = route.getName();
         if (routeName == null || routeName.trim().isEmpty())
         {
             log.debug("Skipping save for route without name");
-            return;
+            return false;
         }
         
         String trialName = route.getTrialName();
@@ -305,33 +733,256 @@ public class RoutePersistenceManager
         }
         
         Path trialDir = getTrialDir(trialName);
-        String fileName = generateFileName(route.getName(), route.getFileUuid());
-        Path filePath = trialDir.resolve(fileName);
+        String baseName = generateBaseName(route.getName(), route.getFileUuid());
+        RouteFileFormat format = config.routeFileFormat();
+        Path filePath = trialDir.resolve(baseName + format.getExtension());
         
         try
         {
             // Create trial directory if it doesn't exist
             Files.createDirectories(trialDir);
             
-            // Write route to JSON file
-            try (FileWriter writer = new FileWriter(filePath.toFile()))
+            boolean replacing = Files.exists(filePath);
+            // Encode the binary route for the index up front, it is the file contents too in the binary format
+            long version = route.getVersion();
+            byte[] payload = encodeForIndex(route);
+            if (payload == null && format == RouteFileFormat.BINARY)
             {
-                gson.toJson(route, writer);
+                // Rather write JSON than a binary file that can't be read back
+                format = RouteFileFormat.JSON;
+                filePath = trialDir.resolve(baseName + format.getExtension());
+                replacing = Files.exists(filePath);
             }
-            
+            writeRouteFile(route, filePath, format, payload);
             log.debug("Saved route to: {}", filePath);
+            
+            // A file in another format is left over from before the format was switched
+            for (RouteFileFormat other : RouteFileFormat.values())
+            {
+                Path otherPath = trialDir.resolve(baseName + other.getExtension());
+                if (other == format || !Files.exists(otherPath))
+                {
+                    continue;
+                }
+                if (config.keepRouteBackups() && !replacing)
+                {
+                    // Keep it as the backup, backups are loaded in whichever format they are in
+                    moveAtomically(otherPath, getBackupPath(filePath));
+                }
+                else
+                {
+                    Files.delete(otherPath);
+                }
+                Files.deleteIfExists(getBackupPath(otherPath));
+            }
+            
+            // The route file now holds everything the journal had
+            RouteJournal journal = journals.get(route);
+            if (journal != null)
+            {
+                journal.truncate();
+            }
+            
+            // Renaming the route or moving it to another trial gives it a new file, remove the old one
+            RouteInfo previous = index.get(route.getFileUuid());
+            if (previous != null)
+            {
+                Path previousDir = previous.getPath().getParent();
+                String previousBaseName = getRouteBaseName(previous.getPath().getFileName().toString());
+                if (!previousDir.equals(trialDir) || !previousBaseName.equals(baseName))
+                {
+                    deleteRouteFiles(previousDir, previousBaseName);
+                }
+            }
+            // Only index the nodes if they are what was written, the route may have been edited meanwhile
+            RouteInfo info = RouteInfo.of(route, filePath, getLastModified(filePath), Files.size(filePath));
+            index.put(info, route.getVersion() == version ? payload : null);
+            saveListener.accept(info);
+            return true;
         }
         catch (IOException e)
         {
             log.error("Failed to save route to file: {}", filePath, e);
+            return false;
         }
     }
     
     /**
-     * Delete a route's JSON file
+     * Start journaling recorded nodes for a route. The route file is written first, so the journal
+     * only has to hold what is recorded from now on. Routes without a name have no file and are not journaled.
+     */
+    public void startJournal(Route route)
+    {
+        executor.execute(() -> {
+            dirtyRoutes.remove(route);
+            if (!saveRoute(route))
+            {
+                // No route file to journal against, recorded nodes are saved the regular way
+                return;
+            }
+            
+            Path journalPath = getTrialDir(getTrialName(route)).resolve(route.getFileUuid() + RouteJournal.SUFFIX);
+            try
+            {
+                RouteJournal previous = journals.put(route, RouteJournal.create(journalPath));
+                if (previous != null)
+                {
+                    previous.close();
+                }
+            }
+            catch (IOException e)
+            {
+                log.error("Failed to create route journal: {}", journalPath, e);
+            }
+        });
+    }
+    
+    /**
+     * Append the nodes from fromIndex onwards to the route's journal, in place of a full save.
+     * Only appends can be journaled, any other edit must be followed by {@link #checkpointJournal}.
+     */
+    public void appendToJournal(Route route, int fromIndex)
+    {
+        // Take the snapshot now, so the indices match the nodes that were just added
+        RouteSnapshot snapshot = route.getSnapshot();
+        executor.execute(() -> {
+            RouteJournal journal = journals.get(route);
+            if (journal == null)
+            {
+                // Not journaled, fall back to a regular save
+                saveRouteLater(route);
+                return;
+            }
+            try
+            {
+                journal.append(snapshot, fromIndex);
+            }
+            catch (IOException e)
+            {
+                log.error("Failed to append to route journal: {}", journal.getPath(), e);
+                saveRouteLater(route);
+            }
+        });
+    }
+    
+    /**
+     * Write the route file and empty the journal, after the route was edited other than by appending
+     */
+    public void checkpointJournal(Route route)
+    {
+        executor.execute(() -> {
+            dirtyRoutes.remove(route);
+            saveRoute(route);
+        });
+    }
+    
+    /**
+     * Stop journaling a route, compacting the journal into the route file
+     */
+    public void stopJournal(Route route)
+    {
+        executor.execute(() -> stopJournalNow(route));
+    }
+    
+    private void stopJournalNow(Route route)
+    {
+        RouteJournal journal = journals.get(route);
+        if (journal == null)
+        {
+            return;
+        }
+        dirtyRoutes.remove(route);
+        saveRoute(route);
+        journals.remove(route);
+        journal.delete();
+    }
+    
+    private static String getTrialName(Route route)
+    {
+        String trialName = route.getTrialName();
+        return trialName == null || trialName.isEmpty() ? "The Tempor Tantrum" : trialName; // Default trial
+    }
+    
+    /**
+     * Write a route to a synced temp file next to the route file, then move it into place in one step.
+     * If backups are enabled the current route file is moved aside to the backup first.
+     */
+    private void writeRouteFile(Route route, Path filePath, RouteFileFormat format, byte[] binary) throws IOException
+    {
+        Path tempPath = filePath.resolveSibling(filePath.getFileName() + TEMP_SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(tempPath.toFile()))
+        {
+            if (format == RouteFileFormat.BINARY)
+            {
+                out.write(binary);
+            }
+            else
+            {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out));
+                RouteJsonCodec.write(route, writer, false);
+                writer.flush();
+            }
+            // Make sure the contents are on disk before the file can replace the old one
+            out.getFD().sync();
+        }
+        catch (IOException e)
+        {
+            Files.deleteIfExists(tempPath);
+            throw e;
+        }
+        
+        if (config.keepRouteBackups() && Files.exists(filePath))
+        {
+            moveAtomically(filePath, getBackupPath(filePath));
+        }
+        moveAtomically(tempPath, filePath);
+        syncDirectory(filePath.getParent());
+    }
+    
+    private static void moveAtomically(Path source, Path target) throws IOException
+    {
+        try
+        {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    /**
+     * Sync the directory so the renames survive a crash. Not every platform can open a directory, so this is best effort.
+     */
+    private static void syncDirectory(Path dir)
+    {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ))
+        {
+            channel.force(true);
+        }
+        catch (IOException e)
+        {
+            log.trace("Could not sync directory: {}", dir, e);
+        }
+    }
+    
+    private static Path getBackupPath(Path filePath)
+    {
+        return filePath.resolveSibling(filePath.getFileName() + BACKUP_SUFFIX);
+    }
+    
+    /**
+     * Delete a route's files on the persistence thread, after any save already in progress
      * Only deletes if the route has a name set
      */
     public void deleteRoute(Route route)
+    {
+        // Drop a pending save, it would recreate the file
+        dirtyRoutes.remove(route);
+        executor.execute(() -> deleteRouteFile(route));
+    }
+    
+    private void deleteRouteFile(Route route)
     {
         if (route == null)
         {
@@ -339,11 +990,10 @@ public class RoutePersistenceManager
             return;
         }
         
-        String routeName = route.getName();
-        if (routeName == null || routeName.trim().isEmpty())
+        RouteJournal journal = journals.remove(route);
+        if (journal != null)
         {
-            log.debug("Skipping delete for route without name");
-            return;
+            journal.delete();
         }
         
         // If route has no UUID, it was never saved, so nothing to delete
@@ -353,28 +1003,59 @@ public class RoutePersistenceManager
             return;
         }
         
-        String trialName = route.getTrialName();
-        if (trialName == null || trialName.isEmpty())
+        // The route may have been renamed since it was last saved, so delete the file the index knows of too
+        RouteInfo indexed = index.get(route.getFileUuid());
+        if (indexed != null)
         {
-            trialName = "The Tempor Tantrum"; // Default trial
+            deleteRouteFiles(indexed.getPath().getParent(), getRouteBaseName(indexed.getPath().getFileName().toString()));
+            index.remove(route.getFileUuid());
         }
         
-        Path trialDir = getTrialDir(trialName);
-        String fileName = generateFileName(routeName, route.getFileUuid());
-        Path filePath = trialDir.resolve(fileName);
-        
-        try
+        String routeName = route.getName();
+        if (routeName == null || routeName.trim().isEmpty())
         {
-            if (Files.exists(filePath))
+            log.debug("Skipping delete for route without name");
+            return;
+        }
+        
+        deleteRouteFiles(getTrialDir(getTrialName(route)), generateBaseName(routeName, route.getFileUuid()));
+    }
+    
+    /**
+     * Delete a route that is in the library but has not been loaded
+     */
+    public void deleteRoute(RouteInfo info)
+    {
+        executor.execute(() -> {
+            RouteInfo indexed = index.get(info.getUuid());
+            Path path = indexed != null ? indexed.getPath() : info.getPath();
+            if (path != null)
             {
-                Files.delete(filePath);
-                log.debug("Deleted route file: {}", filePath);
+                deleteRouteFiles(path.getParent(), getRouteBaseName(path.getFileName().toString()));
             }
-        }
-        catch (IOException e)
+            index.remove(info.getUuid());
+        });
+    }
+    
+    private void deleteRouteFiles(Path trialDir, String baseName)
+    {
+        for (RouteFileFormat format : RouteFileFormat.values())
         {
-            log.error("Failed to delete route file: {}", filePath, e);
+            Path filePath = trialDir.resolve(baseName + format.getExtension());
+            try
+            {
+                if (Files.exists(filePath))
+                {
+                    Files.delete(filePath);
+                    log.debug("Deleted route file: {}", filePath);
+                }
+                // Remove the backup too, otherwise it would be loaded in place of the deleted file
+                Files.deleteIfExists(getBackupPath(filePath));
+            }
+            catch (IOException e)
+            {
+                log.error("Failed to delete route file: {}", filePath, e);
+            }
         }
     }
 }
-
@@ -0,0 +1,174 @@
+package com.barracudaroutes.managers;
+
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.api.Client;
+import net.runelite.api.Player;
+import net.runelite.api.coords.WorldPoint;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Records the player's path for the route editor.
+ * The player position is sampled on the client thread once per game tick, and only when it changed.
+ * Samples are handed to the Swing thread through a lock-free single-producer/single-consumer ring buffer
+ * that is drained in batches, so the client thread never waits on Swing.
+ */
+@Slf4j
+@Singleton
+public class RouteRecorder
+{
+    private static final int CAPACITY = 1024; // Must be a power of two, over 10 minutes of ticks
+    private static final int SESSION_MASK = 0xFFF;
+    private static final int COORD_MASK = 0xFFFFFF;
+
+    private final Client client;
+
+    // Ring buffer of packed samples. head is only written by the client thread, tail only by the Swing thread.
+    private final long[] samples = new long[CAPACITY];
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    // Set on the Swing thread, read on the client thread
+    private volatile boolean recording = false;
+    private volatile int session = 0;
+    private volatile Consumer<List<WorldPoint>> listener;
+
+    // Only touched on the client thread
+    private int sampledSession = -1;
+    private int lastX;
+    private int lastY;
+    private int lastPlane;
+
+    @Inject
+    public RouteRecorder(Client client)
+    {
+        this.client = client;
+    }
+
+    /**
+     * Start recording. Batches of new points are passed to the listener on the Swing thread.
+     * Must be called on the Swing thread.
+     */
+    public void start(Consumer<List<WorldPoint>> listener)
+    {
+        this.listener = listener;
+        // Samples tagged with an older session are dropped, so a previous recording can't leak into this one
+        session = (session + 1) & SESSION_MASK;
+        recording = true;
+    }
+
+    /**
+     * Stop recording, delivering any points that are still queued. Must be called on the Swing thread.
+     */
+    public void stop()
+    {
+        if (!recording)
+        {
+            return;
+        }
+        recording = false;
+        drain();
+        listener = null;
+    }
+
+    public boolean isRecording()
+    {
+        return recording;
+    }
+
+    /**
+     * Sample the player position, called on the client thread every game tick
+     */
+    public void onGameTick()
+    {
+        if (!recording)
+        {
+            return;
+        }
+
+        Player player = client.getLocalPlayer();
+        if (player == null || player.getWorldLocation() == null)
+        {
+            return;
+        }
+        int x = player.getWorldLocation().getX();
+        int y = player.getWorldLocation().getY();
+        int plane = client.getPlane();
+
+        // Only add if player moved (avoid duplicate points)
+        int currentSession = session;
+        if (sampledSession == currentSession && lastX == x && lastY == y && lastPlane == plane)
+        {
+            return;
+        }
+
+        long position = head.get();
+        if (position - tail.get() >= CAPACITY)
+        {
+            // The Swing thread has fallen far behind, dropping beats blocking the client thread
+            log.debug("Route recording buffer full, dropping sample at {}, {}", x, y);
+            return;
+        }
+        samples[(int) (position & (CAPACITY - 1))] = pack(currentSession, x, y, plane);
+        head.set(position + 1);
+
+        sampledSession = currentSession;
+        lastX = x;
+        lastY = y;
+        lastPlane = plane;
+
+        // Coalesce wakeups, a drain that is already queued will pick this sample up too
+        if (drainScheduled.compareAndSet(false, true))
+        {
+            SwingUtilities.invokeLater(this::drain);
+        }
+    }
+
+    private void drain()
+    {
+        // Clear the flag first so a sample pushed while draining schedules another drain
+        drainScheduled.set(false);
+
+        long start = tail.get();
+        long end = head.get();
+        if (start == end)
+        {
+            return;
+        }
+
+        int currentSession = session;
+        List<WorldPoint> batch = new ArrayList<>((int) (end - start));
+        for (long position = start; position < end; position++)
+        {
+            long sample = samples[(int) (position & (CAPACITY - 1))];
+            if ((int) (sample >>> 52) == currentSession)
+            {
+                batch.add(new WorldPoint((int) (sample >>> 24) & COORD_MASK, (int) sample & COORD_MASK,
+                    (int) (sample >>> 48) & 0xF));
+            }
+        }
+        tail.set(end);
+
+        Consumer<List<WorldPoint>> current = listener;
+        if (current != null && !batch.isEmpty())
+        {
+            current.accept(batch);
+        }
+    }
+
+    private static long pack(int session, int x, int y, int plane)
+    {
+        return ((long) (session & SESSION_MASK) << 52)
+            | ((long) (plane & 0xF) << 48)
+            | ((long) (x & COORD_MASK) << 24)
+            | (y & COORD_MASK);
+    }
+}
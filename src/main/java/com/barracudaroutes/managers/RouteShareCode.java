@@ -0,0 +1,121 @@
+package com.barracudaroutes.managers;
+
+import com.barracudaroutes.model.Route;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Short text form of a route for sharing through the clipboard or chat.
+ *
+ * A share code is URL-safe Base64 without padding of a version byte followed by the route in the binary
+ * route format, compressed with DEFLATE. The binary route brings the delta and varint encoded nodes and
+ * a CRC32, so a code that was cut short or mistyped is rejected instead of importing a broken route.
+ * The route's UUID is left out.
+ */
+final class RouteShareCode
+{
+    private static final int VERSION = 1;
+    private static final int MAX_ROUTE_BYTES = 16 << 20; // Refuse codes that inflate to absurd sizes
+
+    private RouteShareCode()
+    {
+    }
+
+    /**
+     * @throws IOException if the route can't be written in the binary route format
+     */
+    static String encode(Route route) throws IOException
+    {
+        // Importers give the route a UUID of their own, so it isn't worth the 16 bytes
+        byte[] data = RouteBinaryCodec.write(route, false);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try
+        {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+            out.write(VERSION);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished())
+            {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(out.toByteArray());
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Check if text looks like a share code rather than JSON
+     */
+    static boolean isShareCode(String text)
+    {
+        String trimmed = text.trim();
+        return !trimmed.isEmpty() && trimmed.charAt(0) != '{';
+    }
+
+    /**
+     * Read a share code, checking the route against the {@link RouteImportLimits}.
+     * Whitespace is ignored, chat clients may wrap long codes.
+     *
+     * @throws IOException if the text is not a share code, is damaged or breaks a limit
+     */
+    static Route decode(String code) throws IOException
+    {
+        byte[] data;
+        try
+        {
+            data = Base64.getUrlDecoder().decode(code.replaceAll("\\s+", ""));
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IOException("Not a route share code", e);
+        }
+        if (data.length < 2)
+        {
+            throw new IOException("Route share code is too short");
+        }
+        if (data[0] != VERSION)
+        {
+            throw new IOException("Unsupported route share code version " + data[0]);
+        }
+
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(data, 1, data.length - 1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished())
+            {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    throw new IOException("Route share code is truncated");
+                }
+                out.write(buffer, 0, n);
+                if (out.size() > MAX_ROUTE_BYTES)
+                {
+                    throw new IOException("Route share code is too large");
+                }
+            }
+            return RouteBinaryCodec.read(out.toByteArray(), true);
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException("Route share code is damaged", e);
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+}
@@ -1,9 +1,8 @@
 package com.barracudaroutes.managers;
 
 import com.barracudaroutes.BarracudaRoutesConfig;
-import com.barracudaroutes.model.routenodes.PointNode;
 import com.barracudaroutes.model.Route;
-import com.barracudaroutes.model.routenodes.RouteNode;
+import com.barracudaroutes.model.RouteSnapshot;
 import net.runelite.api.Client;
 import net.runelite.api.coords.WorldPoint;
 import net.runelite.client.config.ConfigManager;
@@ -14,97 +13,57 @@ import java.util.*;
 
 /**
  * Manages automatic hiding of route tiles when the player is near them.
- * Uses a queue-based approach where tiles are processed sequentially.
+ * Tiles are processed sequentially using a cursor over the route's point nodes.
  * Features:
  * - Hides tiles when player is within 5 tiles (with 5 tick delay)
  * - Only shows next 30 visible tiles at a time
- * - Tiles are processed sequentially in queue order
+ * - Tiles are processed sequentially in route order
+ *
+ * Points before hiddenCount are hidden, points from hiddenCount up to checkCursor are pending hide,
+ * and the next maxVisibleTiles points from hiddenCount are shown. Every tick checks one point, independent
+ * of the route length. When the active route changes the cursor starts at the first point near the player,
+ * looked up in the route's spatial index, so picking a route partway through it doesn't leave the cursor at
+ * its start.
  */
 @Singleton
 public class RouteVisibilityManager
 {
     private final Client client;
     private final RouteManager routeManager;
-    private final ConfigManager configManager;
-    
+    private final BarracudaRoutesConfig config;
+
     // Configuration
     private boolean enabled = true;
-    
-    // Queue-based state
+
+    // Cursor state, in point ordinals (lap dividers are not counted)
     private Route currentRoute = null;
-    private final Queue<ManagedTile> tileQueue = new LinkedList<>();
-    
-    /**
-     * Represents a tile in the visibility queue with all its state
-     */
-    private static class ManagedTile
-    {
-        final int index; // Tile index in the route
-        int ticksRemaining; // Ticks remaining until hide (-1 if not pending hide, 0 if hidden)
-        boolean isHidden; // Whether this tile has been hidden
-        
-        ManagedTile(int index)
-        {
-            this.index = index;
-            this.ticksRemaining = -1; // Not pending hide
-            this.isHidden = false;
-        }
-        
-        /**
-         * Check if this tile is pending hide (countdown active)
-         */
-        boolean isPendingHide()
-        {
-            return ticksRemaining > 0;
-        }
-        
-        /**
-         * Check if this tile is visible (not hidden - pending hide tiles are still visible during countdown)
-         */
-        boolean isVisible()
-        {
-            return !isHidden;
-        }
-        
-        /**
-         * Mark this tile as pending hide with countdown
-         */
-        void markPendingHide(int delayTicks)
-        {
-            ticksRemaining = delayTicks;
-        }
-        
-        /**
-         * Decrement countdown and hide if it reaches 0
-         */
-        boolean decrementAndCheckHide()
-        {
-            if (ticksRemaining > 0)
-            {
-                ticksRemaining--;
-                if (ticksRemaining == 0)
-                {
-                    isHidden = true;
-                    return true; // Just became hidden
-                }
-            }
-            return false; // Not hidden yet
-        }
-    }
-    
+    private int hiddenCount = 0; // Points before this ordinal are hidden
+    private int checkCursor = 0; // Next point to check against the player position
+    private long tick = 0;
+
+    // Ring buffer of the tick each pending point hides on, for ordinals hiddenCount to checkCursor - 1.
+    // Points are marked in order with the same delay, so the deadlines are already sorted.
+    private long[] hideTicks = new long[8];
+    private int pendingHead = 0;
+    private int pendingCount = 0;
+
+    // Published visibility, rebuilt only when one of the inputs below changes
+    private final BitSet visibleTiles = new BitSet();
+    private Route visibleRoute = null;
+    private long visibleVersion = -1;
+    private boolean visibleShowAll = false;
+    private int visibleHiddenCount = -1;
+    private int visibleMaxTiles = -1;
+
     @Inject
     public RouteVisibilityManager(Client client, RouteManager routeManager, ConfigManager configManager)
     {
         this.client = client;
         this.routeManager = routeManager;
-        this.configManager = configManager;
-    }
-    
-    private BarracudaRoutesConfig getConfig()
-    {
-        return configManager.getConfig(BarracudaRoutesConfig.class);
+        // The config proxy reads through to the config manager, so one instance stays up to date
+        this.config = configManager.getConfig(BarracudaRoutesConfig.class);
     }
-    
+
     /**
      * Enable or disable the visibility manager
      */
@@ -117,7 +76,7 @@ public class RouteVisibilityManager
             reset();
         }
     }
-    
+
     /**
      * Check if the visibility manager is enabled
      */
@@ -125,7 +84,7 @@ public class RouteVisibilityManager
     {
         return enabled;
     }
-    
+
     /**
      * Update the visibility state based on current player position
      * Should be called regularly (e.g., on game tick)
@@ -136,281 +95,147 @@ public class RouteVisibilityManager
         {
             return;
         }
-        
+
         // Don't hide tiles when in edit mode
         if (routeManager.isInEditMode())
         {
             return;
         }
-        
+
         Route activeRoute = routeManager.getActiveRoute();
-        
-        // Reset if route changed (different route object)
-        if (activeRoute != currentRoute && activeRoute != null)
-        {
-            reset();
-            currentRoute = activeRoute;
-            initializeQueue(activeRoute);
-        }
-        
-        // Update currentRoute reference if it's null but we have an active route
-        if (currentRoute == null && activeRoute != null)
-        {
-            currentRoute = activeRoute;
-            initializeQueue(activeRoute);
-        }
-        
-        List<RouteNode> routeNodes = activeRoute.getRoute();
-        if (routeNodes.isEmpty())
+        syncRoute(activeRoute);
+
+        if (activeRoute == null || activeRoute.getNodeCount() == 0)
         {
             return;
         }
-        
+
         // Get current player position
         if (client.getLocalPlayer() == null)
         {
             return;
         }
-        
+
         WorldPoint playerPos = client.getLocalPlayer().getWorldLocation();
         if (playerPos == null)
         {
             return;
         }
-        
-        // Decrement countdowns for pending hide tiles
-        decrementPendingHides();
-        
-        // Process queue - check next tile that isn't pending hide
-        processQueue(playerPos);
-        
-        // Check if we've reached the end - if so, reset queue back to full
-        if (isQueueAtEnd())
+
+        RouteSnapshot nodes = currentRoute.getSnapshot();
+        tick++;
+
+        // Hide pending tiles whose countdown has run out
+        hideExpiredTiles();
+
+        // Check the next tile that isn't pending hide
+        processCursor(nodes, playerPos);
+
+        // Once every point is hidden, start over from the beginning of the route
+        if (hiddenCount >= nodes.getPointCount())
         {
-            resetQueue();
+            resetCursor();
         }
     }
-    
+
     /**
-     * Initialize the queue with the first MAX_VISIBLE_TILES point nodes
+     * Reset the cursor when the active route changes (different route object). Edits to the same route,
+     * such as recorded tiles being appended, keep the player's progress.
      */
-    private void initializeQueue(Route route)
+    private void syncRoute(Route activeRoute)
     {
-        tileQueue.clear();
-        
-        if (route == null)
-        {
-            return;
-        }
-        
-        List<RouteNode> routeNodes = route.getRoute();
-        if (routeNodes.isEmpty())
-        {
-            return;
-        }
-        
-        // Count point nodes (skip lap dividers)
-        int pointCount = 0;
-        int tilesToAdd = getConfig().maxVisibleTiles();
-        
-        for (int i = 0; i < routeNodes.size() && pointCount < tilesToAdd; i++)
+        if (activeRoute != null && activeRoute != currentRoute)
         {
-            RouteNode node = routeNodes.get(i);
-            if (node instanceof PointNode)
-            {
-                tileQueue.add(new ManagedTile(i));
-                pointCount++;
-            }
+            currentRoute = activeRoute;
+            resetCursor();
+            startCursorNearPlayer(activeRoute.getSnapshot());
         }
     }
-    
-    /**
-     * Reset the queue back to full (first MAX_VISIBLE_TILES point nodes)
-     */
-    private void resetQueue()
+
+    private void resetCursor()
     {
-        if (currentRoute == null)
-        {
-            return;
-        }
-        
-        initializeQueue(currentRoute);
+        hiddenCount = 0;
+        checkCursor = 0;
+        pendingHead = 0;
+        pendingCount = 0;
     }
-    
+
     /**
-     * Check if we've reached the end of the queue (all tiles are hidden or beyond max visible)
+     * Start the cursor at the first point within hide distance of the player, hiding the points before it.
+     * If the player isn't near the route the cursor stays at its first point.
      */
-    private boolean isQueueAtEnd()
+    private void startCursorNearPlayer(RouteSnapshot nodes)
     {
-        if (currentRoute == null)
-        {
-            return false;
-        }
-        
-        List<RouteNode> routeNodes = currentRoute.getRoute();
-        if (routeNodes.isEmpty())
-        {
-            return false;
-        }
-        
-        // Check if all tiles in queue are hidden
-        boolean allHidden = true;
-        for (ManagedTile tile : tileQueue)
-        {
-            if (!tile.isHidden)
-            {
-                allHidden = false;
-                break;
-            }
-        }
-        
-        if (!allHidden)
+        WorldPoint playerPos = client.getLocalPlayer() != null ? client.getLocalPlayer().getWorldLocation() : null;
+        if (playerPos == null)
         {
-            return false;
+            return;
         }
-        
-        // Check if we've processed all point nodes
-        int maxIndex = -1;
-        for (ManagedTile tile : tileQueue)
+
+        int index = nodes.getSpatialIndex().findFirstWithinDistance(playerPos.getX(), playerPos.getY(),
+            playerPos.getPlane(), config.hideDistance());
+        if (index >= 0)
         {
-            if (tile.index > maxIndex)
-            {
-                maxIndex = tile.index;
-            }
+            hiddenCount = nodes.getPointOrdinal(index);
+            checkCursor = hiddenCount;
         }
-        
-        // Check if there are any more point nodes after maxIndex
-        for (int i = maxIndex + 1; i < routeNodes.size(); i++)
-        {
-            if (routeNodes.get(i) instanceof PointNode)
-            {
-                return false; // There are more point nodes
-            }
-        }
-        
-        return true; // All point nodes have been processed
     }
-    
+
     /**
-     * Decrement countdowns for pending hide tiles and hide when countdown reaches 0
+     * Hide pending tiles from the front of the ring buffer once their countdown reaches 0
      */
-    private void decrementPendingHides()
+    private void hideExpiredTiles()
     {
-        for (ManagedTile tile : tileQueue)
+        while (pendingCount > 0 && hideTicks[pendingHead] <= tick)
         {
-            tile.decrementAndCheckHide();
+            pendingHead = (pendingHead + 1) % hideTicks.length;
+            pendingCount--;
+            hiddenCount++;
         }
     }
-    
+
     /**
-     * Process the queue - check the next tile that isn't pending hide
+     * Check the point under the cursor and mark it pending hide if the player is near it
      */
-    private void processQueue(WorldPoint playerPos)
+    private void processCursor(RouteSnapshot nodes, WorldPoint playerPos)
     {
-        if (currentRoute == null)
-        {
-            return;
-        }
-        
-        List<RouteNode> routeNodes = currentRoute.getRoute();
-        if (routeNodes.isEmpty())
+        if (checkCursor >= nodes.getPointCount())
         {
             return;
         }
-        
-        // Find the next tile in queue that isn't pending hide and isn't hidden
-        ManagedTile nextTile = null;
-        Iterator<ManagedTile> queueIterator = tileQueue.iterator();
-        
-        while (queueIterator.hasNext())
-        {
-            ManagedTile tile = queueIterator.next();
-            
-            // Skip if hidden
-            if (tile.isHidden)
-            {
-                continue;
-            }
-            
-            // Skip if already pending hide
-            if (tile.isPendingHide())
-            {
-                continue;
-            }
-            
-            // Found the next tile to check
-            nextTile = tile;
-            break;
-        }
-        
-        if (nextTile == null)
-        {
-            // No tiles to check in queue, try to add more if we haven't reached the end
-            int maxIndex = getMaxQueueIndex();
-            if (tileQueue.isEmpty() || maxIndex < routeNodes.size() - 1)
-            {
-                // Find next point node after maxIndex
-                for (int i = maxIndex + 1; i < routeNodes.size(); i++)
-                {
-                    RouteNode node = routeNodes.get(i);
-                    if (node instanceof PointNode)
-                    {
-                        ManagedTile newTile = new ManagedTile(i);
-                        tileQueue.add(newTile);
-                        nextTile = newTile;
-                        break;
-                    }
-                }
-            }
-        }
-        
-        if (nextTile == null)
+
+        if (getDistance(playerPos, nodes, nodes.getPointNodeIndex(checkCursor)) > config.hideDistance())
         {
             return;
         }
-        
-        // Check distance to player
-        RouteNode node = routeNodes.get(nextTile.index);
-        if (!(node instanceof PointNode))
-        {
-            return; // Shouldn't happen, but be safe
-        }
-        
-        PointNode point = (PointNode) node;
-        int distance = getDistance(playerPos, point);
-        
-        if (distance <= getConfig().hideDistance())
+
+        int delayTicks = config.hideDelayTicks();
+        markPendingHide(tick + Math.max(0, delayTicks));
+        checkCursor++;
+        if (delayTicks <= 0)
         {
-            int delayTicks = getConfig().hideDelayTicks();
-            if (delayTicks <= 0)
-            {
-                // No delay - hide immediately
-                nextTile.isHidden = true;
-            }
-            else
-            {
-                // Player is near this tile, mark it as pending hide with countdown
-                nextTile.markPendingHide(delayTicks);
-            }
+            // No delay - hide immediately
+            hideExpiredTiles();
         }
     }
-    
-    /**
-     * Get the maximum index currently in the queue
-     */
-    private int getMaxQueueIndex()
+
+    private void markPendingHide(long hideTick)
     {
-        int max = -1;
-        for (ManagedTile tile : tileQueue)
+        if (pendingCount == hideTicks.length)
         {
-            if (tile.index > max)
+            // One point is marked per tick, so this only grows past the hide delay when the config changes
+            long[] grown = new long[hideTicks.length * 2];
+            for (int i = 0; i < pendingCount; i++)
             {
-                max = tile.index;
+                grown[i] = hideTicks[(pendingHead + i) % hideTicks.length];
             }
+            hideTicks = grown;
+            pendingHead = 0;
         }
-        return max;
+        hideTicks[(pendingHead + pendingCount) % hideTicks.length] = hideTick;
+        pendingCount++;
     }
-    
+
     /**
      * Check if a tile at the given index should be visible
      */
@@ -420,198 +245,93 @@ public class RouteVisibilityManager
         {
             return true; // Show all tiles when disabled or no route
         }
-        
-        List<RouteNode> routeNodes = currentRoute.getRoute();
-        if (index < 0 || index >= routeNodes.size())
+
+        RouteSnapshot nodes = currentRoute.getSnapshot();
+        if (index < 0 || index >= nodes.getNodeCount())
         {
             return false;
         }
-        
-        // Only point nodes can be visible
-        RouteNode node = routeNodes.get(index);
-        if (!(node instanceof PointNode))
-        {
-            return false; // Lap dividers are not "visible" in this sense
-        }
-        
-        // Find the tile in the queue
-        for (ManagedTile tile : tileQueue)
-        {
-            if (tile.index == index)
-            {
-                return tile.isVisible();
-            }
-        }
-        
-        // Tile not in queue - check if it's beyond max visible
-        int firstVisibleIndex = findFirstVisibleIndex(routeNodes);
-        if (index < firstVisibleIndex)
-        {
-            return false; // This tile should be hidden (previous tiles were hidden)
-        }
-        
-        // Count point nodes from firstVisibleIndex to index
-        int pointCount = 0;
-        for (int i = firstVisibleIndex; i <= index && i < routeNodes.size(); i++)
-        {
-            if (routeNodes.get(i) instanceof PointNode)
-            {
-                pointCount++;
-            }
-        }
-        
-        if (pointCount > getConfig().maxVisibleTiles())
-        {
-            return false; // Beyond max visible tiles
-        }
-        
-        return true; // Should be visible but not in queue yet
+
+        // Only point nodes can be visible, lap dividers are not "visible" in this sense
+        int ordinal = nodes.getPointOrdinal(index);
+        return ordinal >= hiddenCount && ordinal < hiddenCount + config.maxVisibleTiles();
     }
-    
+
     /**
-     * Get the list of visible tile indices (only point nodes, not lap dividers)
+     * Get the node indices of the visible tiles (only point nodes, not lap dividers).
+     * The returned set is owned by the manager and reused between calls, callers must not modify it.
      */
-    public Set<Integer> getVisibleTileIndices()
+    public BitSet getVisibleTiles()
     {
         Route activeRoute = routeManager.getActiveRoute();
-        
-        // If no route, return empty set
+
+        // If no route, nothing is visible
         if (activeRoute == null)
         {
-            return new HashSet<>();
-        }
-        
-        // Always use the current active route to get the latest nodes
-        List<RouteNode> routeNodes = activeRoute.getRoute();
-        
-        if (!enabled)
-        {
-            // Return all point node indices when disabled
-            Set<Integer> allIndices = new HashSet<>();
-            for (int i = 0; i < routeNodes.size(); i++)
+            if (visibleRoute != null)
             {
-                if (routeNodes.get(i) instanceof PointNode)
-                {
-                    allIndices.add(i);
-                }
+                visibleTiles.clear();
+                visibleRoute = null;
             }
-            return allIndices;
+            return visibleTiles;
         }
-        
-        // In edit mode, show all point nodes
-        if (routeManager.isInEditMode())
+
+        // Show all point nodes when disabled or in edit mode
+        boolean showAll = !enabled || routeManager.isInEditMode();
+        if (!showAll)
         {
-            Set<Integer> allIndices = new HashSet<>();
-            for (int i = 0; i < routeNodes.size(); i++)
-            {
-                if (routeNodes.get(i) instanceof PointNode)
-                {
-                    allIndices.add(i);
-                }
-            }
-            return allIndices;
+            syncRoute(activeRoute);
         }
-        
-        // Use currentRoute for visibility logic, but ensure it's up to date
-        if (currentRoute == null)
+
+        long version = activeRoute.getVersion();
+        int maxTiles = config.maxVisibleTiles();
+        if (activeRoute == visibleRoute && version == visibleVersion && showAll == visibleShowAll
+            && (showAll || (hiddenCount == visibleHiddenCount && maxTiles == visibleMaxTiles)))
         {
-            currentRoute = activeRoute;
-            initializeQueue(activeRoute);
+            return visibleTiles;
         }
-        
-        Set<Integer> visible = new HashSet<>();
-        List<RouteNode> currentRouteNodes = currentRoute.getRoute();
-        int firstVisibleIndex = findFirstVisibleIndex(currentRouteNodes);
-        
-        // Count point nodes from firstVisibleIndex
-        int pointCount = 0;
-        for (int i = firstVisibleIndex; i < currentRouteNodes.size() && pointCount < getConfig().maxVisibleTiles(); i++)
+
+        RouteSnapshot nodes = activeRoute.getSnapshot();
+        int from = showAll ? 0 : hiddenCount;
+        int end = showAll ? nodes.getPointCount() : Math.min(nodes.getPointCount(), hiddenCount + maxTiles);
+        visibleTiles.clear();
+        for (int ordinal = from; ordinal < end; ordinal++)
         {
-            RouteNode node = currentRouteNodes.get(i);
-            if (node instanceof PointNode)
-            {
-                // Check if tile is visible by looking in queue
-                boolean found = false;
-                for (ManagedTile tile : tileQueue)
-                {
-                    if (tile.index == i)
-                    {
-                        if (tile.isVisible())
-                        {
-                            visible.add(i);
-                        }
-                        found = true;
-                        break;
-                    }
-                }
-                
-                // If not in queue yet, it should be visible
-                if (!found)
-                {
-                    visible.add(i);
-                }
-                pointCount++;
-            }
+            visibleTiles.set(nodes.getPointNodeIndex(ordinal));
         }
-        
-        return visible;
+
+        visibleRoute = activeRoute;
+        visibleVersion = nodes.getVersion();
+        visibleShowAll = showAll;
+        visibleHiddenCount = hiddenCount;
+        visibleMaxTiles = maxTiles;
+        return visibleTiles;
     }
-    
+
     /**
      * Reset all state (called when route changes or feature is disabled)
      */
     public void reset()
     {
-        tileQueue.clear();
+        resetCursor();
         currentRoute = null;
+        visibleRoute = null;
+        visibleTiles.clear();
     }
-    
-    /**
-     * Find the first visible point node index (first point node that isn't hidden)
-     */
-    private int findFirstVisibleIndex(List<RouteNode> routeNodes)
-    {
-        for (int i = 0; i < routeNodes.size(); i++)
-        {
-            RouteNode node = routeNodes.get(i);
-            if (!(node instanceof PointNode))
-            {
-                continue; // Skip lap dividers
-            }
-            
-            // Check if this tile is in the queue and visible
-            boolean isVisible = true;
-            for (ManagedTile tile : tileQueue)
-            {
-                if (tile.index == i)
-                {
-                    isVisible = tile.isVisible();
-                    break;
-                }
-            }
-            
-            if (isVisible)
-            {
-                return i;
-            }
-        }
-        // All point nodes are hidden
-        return routeNodes.size();
-    }
-    
+
     /**
-     * Calculate distance between player position and point node
+     * Calculate distance between player position and the point node at the given index
      */
-    private int getDistance(WorldPoint playerPos, PointNode point)
+    private int getDistance(WorldPoint playerPos, RouteSnapshot nodes, int index)
     {
-        if (playerPos.getPlane() != point.getPlane())
+        if (playerPos.getPlane() != nodes.getPlane(index))
         {
             return Integer.MAX_VALUE; // Different plane = very far
         }
-        
-        int dx = Math.abs(playerPos.getX() - point.getX());
-        int dy = Math.abs(playerPos.getY() - point.getY());
-        
+
+        int dx = Math.abs(playerPos.getX() - nodes.getX(index));
+        int dy = Math.abs(playerPos.getY() - nodes.getY(index));
+
         // Use Chebyshev distance (max of dx and dy) for tile distance
         return Math.max(dx, dy);
     }
@@ -5,23 +5,61 @@ import com.barracudaroutes.model.routenodes.PointNode;
 import com.barracudaroutes.model.routenodes.RouteNode;
 
 import java.awt.Color;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.barracudaroutes.model.RouteSnapshot.TYPE_LAP_DIVIDER;
+import static com.barracudaroutes.model.RouteSnapshot.TYPE_POINT;
+
+/**
+ * A named route made of points and lap dividers.
+ * Edits are serialized on the route and each one publishes a new immutable {@link RouteSnapshot},
+ * which readers on other threads (overlay, visibility manager) should use instead of the live route.
+ */
 public class Route
 {
-    private String name;
-    private String description;
-    private String trialName;
-    private final List<RouteNode> route = new ArrayList<>();
-    private UUID fileUuid; // UUID used in filename for persistence
+    private static final int INITIAL_CAPACITY = 16;
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    // Volatile since routes are saved from the persistence thread
+    private volatile String name;
+    private volatile String description;
+    private volatile String trialName;
+    private volatile UUID fileUuid; // UUID used in filename for persistence
+
+    // Working storage: nodes are stored packed in parallel arrays instead of as RouteNode objects.
+    // Points use xs/ys/planes, lap dividers use laps/lapColors.
+    private int size;
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private int[] xs = new int[INITIAL_CAPACITY];
+    private int[] ys = new int[INITIAL_CAPACITY];
+    private int[] planes = new int[INITIAL_CAPACITY];
+    private int[] laps = new int[INITIAL_CAPACITY];
+    private Color[] lapColors = new Color[INITIAL_CAPACITY]; // null means use default
+
+    // Lap index, kept up to date by every edit so lap lookups never scan the nodes
+    private int[] lapAt = new int[INITIAL_CAPACITY]; // Lap number in effect at each node
+    private int[] lapStarts = new int[INITIAL_CAPACITY]; // Sorted indices of the lap divider nodes
+    private int lapStartCount;
+    private Map<Integer, Integer> lapDividerIndex = new HashMap<>(); // Lap number -> first divider index
+
+    // Whether the working storage is referenced by the published snapshot and must be copied before
+    // modifying anything below the snapshot's size
+    private boolean published;
+    private volatile RouteSnapshot snapshot;
 
     public Route(String name, String description, String trialName)
     {
         this.name = name;
         this.description = description;
         this.trialName = trialName;
+        publish();
     }
 
     public String getName()
@@ -54,100 +92,492 @@ public class Route
         this.trialName = trialName;
     }
 
+    /**
+     * Get the current snapshot of the route nodes. It never changes, so callers that read
+     * several nodes should grab it once rather than going through the route accessors.
+     */
+    public RouteSnapshot getSnapshot()
+    {
+        return snapshot;
+    }
+
+    /**
+     * Get the version of the current snapshot
+     */
+    public long getVersion()
+    {
+        return snapshot.getVersion();
+    }
+
+    /**
+     * Get a read-only view of the current route nodes.
+     * Nodes are created on demand from the packed storage, so they are detached copies:
+     * modify the route through {@link #addNode}, {@link #insertNode}, {@link #removeNode} etc.
+     */
     public List<RouteNode> getRoute()
     {
-        return route;
+        return snapshot.getNodes();
+    }
+
+    public int getNodeCount()
+    {
+        return snapshot.getNodeCount();
+    }
+
+    public boolean isLapDivider(int index)
+    {
+        return snapshot.isLapDivider(index);
     }
 
-    public void addNode(RouteNode node)
+    public boolean isPoint(int index)
     {
-        route.add(node);
+        return snapshot.isPoint(index);
     }
-    
+
+    public int getX(int index)
+    {
+        return snapshot.getX(index);
+    }
+
+    public int getY(int index)
+    {
+        return snapshot.getY(index);
+    }
+
+    public int getPlane(int index)
+    {
+        return snapshot.getPlane(index);
+    }
+
     /**
-     * Get all point nodes from the route (excluding lap dividers)
+     * Get the lap number of the lap divider at the given index
      */
-    public List<PointNode> getPointNodes()
+    public int getLapNumber(int index)
     {
-        List<PointNode> points = new ArrayList<>();
-        for (RouteNode node : route)
+        return snapshot.getLapNumber(index);
+    }
+
+    /**
+     * Create a node view for the node at the given index
+     */
+    public RouteNode getNode(int index)
+    {
+        return snapshot.getNode(index);
+    }
+
+    public synchronized void addNode(RouteNode node)
+    {
+        insert(size, node);
+        publish();
+    }
+
+    /**
+     * Append the nodes in order, publishing one snapshot for all of them rather than one per node.
+     * Used when a whole route is read, where the snapshots in between would never be looked at.
+     */
+    public synchronized void addNodes(List<? extends RouteNode> nodes)
+    {
+        if (nodes.isEmpty())
         {
-            if (node instanceof PointNode)
-            {
-                points.add((PointNode) node);
-            }
+            return;
+        }
+        ensureCapacity(size + nodes.size());
+        for (RouteNode node : nodes)
+        {
+            insert(size, node);
         }
-        return points;
+        publish();
     }
-    
+
     /**
-     * Get the current lap number at a given index in the route
+     * Insert a node at the given index, shifting later nodes back
      */
-    public int getLapAt(int index)
+    public synchronized void insertNode(int index, RouteNode node)
     {
-        int currentLap = 1;
-        for (int i = 0; i <= index && i < route.size(); i++)
+        insert(index, node);
+        publish();
+    }
+
+    /**
+     * Remove the node at the given index and return a view of it
+     */
+    public synchronized RouteNode removeNode(int index)
+    {
+        RouteNode removed = getNode(index);
+        remove(index, index + 1);
+        publish();
+        return removed;
+    }
+
+    /**
+     * Remove the nodes from fromIndex (inclusive) to toIndex (exclusive)
+     */
+    public synchronized void removeNodes(int fromIndex, int toIndex)
+    {
+        remove(fromIndex, toIndex);
+        publish();
+    }
+
+    /**
+     * Move the node at fromIndex so that it ends up at toIndex
+     */
+    public synchronized void moveNode(int fromIndex, int toIndex)
+    {
+        Objects.checkIndex(fromIndex, size);
+        Objects.checkIndex(toIndex, size);
+        if (fromIndex == toIndex)
         {
-            RouteNode node = route.get(i);
-            if (node instanceof LapDividerNode)
-            {
-                currentLap = ((LapDividerNode) node).getLapNumber();
-            }
+            return;
         }
-        return currentLap;
+        RouteNode node = getNode(fromIndex);
+        remove(fromIndex, fromIndex + 1);
+        insert(toIndex, node);
+        publish();
+    }
+
+    /**
+     * Replace the coordinates of the point at the given index
+     */
+    public synchronized void setPoint(int index, int x, int y, int plane)
+    {
+        if (!isPoint(index))
+        {
+            throw new IllegalArgumentException("Node " + index + " is not a point");
+        }
+        ensureWritable();
+        xs[index] = x;
+        ys[index] = y;
+        planes[index] = plane;
+        publish();
+    }
+
+    public synchronized void clear()
+    {
+        // Start over with fresh storage, the old arrays may still be in use by published snapshots
+        size = 0;
+        types = new byte[INITIAL_CAPACITY];
+        xs = new int[INITIAL_CAPACITY];
+        ys = new int[INITIAL_CAPACITY];
+        planes = new int[INITIAL_CAPACITY];
+        laps = new int[INITIAL_CAPACITY];
+        lapColors = new Color[INITIAL_CAPACITY];
+        lapAt = new int[INITIAL_CAPACITY];
+        lapStarts = new int[INITIAL_CAPACITY];
+        lapStartCount = 0;
+        lapDividerIndex = new HashMap<>();
+        published = false;
+        publish();
     }
-    
+
+    /**
+     * Get all point nodes from the route (excluding lap dividers)
+     */
+    public List<PointNode> getPointNodes()
+    {
+        return snapshot.getPointNodes();
+    }
+
+    /**
+     * Get the current lap number at a given index in the route
+     */
+    public int getLapAt(int index)
+    {
+        return snapshot.getLapAt(index);
+    }
+
+    /**
+     * Get the index of the first lap divider with the given lap number, or -1 if there is none
+     */
+    public int getLapDividerIndex(int lapNumber)
+    {
+        return snapshot.getLapDividerIndex(lapNumber);
+    }
+
+    /**
+     * Get the index of the first lap divider after the given index, or the node count if there is none
+     */
+    public int getNextLapDividerIndex(int index)
+    {
+        return snapshot.getNextLapDividerIndex(index);
+    }
+
     /**
      * Get the color for a lap divider, or null if using default
      */
     public Color getLapColor(int lapNumber)
     {
-        for (RouteNode node : route)
+        return snapshot.getLapColor(lapNumber);
+    }
+
+    /**
+     * Set the color for a lap divider
+     */
+    public synchronized void setLapColor(int lapNumber, Color color)
+    {
+        Integer index = lapDividerIndex.get(lapNumber);
+        if (index != null)
         {
-            if (node instanceof LapDividerNode)
+            ensureWritable();
+            lapColors[index] = color;
+            publish();
+        }
+    }
+
+    public UUID getFileUuid()
+    {
+        return fileUuid;
+    }
+
+    public void setFileUuid(UUID fileUuid)
+    {
+        this.fileUuid = fileUuid;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+
+    private void publish()
+    {
+        snapshot = new RouteSnapshot(VERSIONS.incrementAndGet(), size, types, xs, ys, planes, laps, lapColors,
+            lapAt, lapStarts, lapStartCount, lapDividerIndex);
+        published = true;
+    }
+
+    /**
+     * Copy the working storage if the published snapshot still references it
+     */
+    private void ensureWritable()
+    {
+        if (!published)
+        {
+            return;
+        }
+        int capacity = xs.length;
+        types = Arrays.copyOf(types, capacity);
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        planes = Arrays.copyOf(planes, capacity);
+        laps = Arrays.copyOf(laps, capacity);
+        lapColors = Arrays.copyOf(lapColors, capacity);
+        lapAt = Arrays.copyOf(lapAt, capacity);
+        lapStarts = Arrays.copyOf(lapStarts, lapStarts.length);
+        lapDividerIndex = new HashMap<>(lapDividerIndex);
+        published = false;
+    }
+
+    private void insert(int index, RouteNode node)
+    {
+        Objects.checkIndex(index, size + 1);
+        if (index < size || !(node instanceof PointNode))
+        {
+            // Appending a point only writes past the published size and leaves the lap index untouched,
+            // so it can share the storage with the published snapshot
+            ensureWritable();
+        }
+        ensureCapacity(size + 1);
+        shift(index, index + 1, size - index);
+        size++;
+        store(index, node);
+        onNodeInserted(index);
+    }
+
+    private void remove(int fromIndex, int toIndex)
+    {
+        Objects.checkFromToIndex(fromIndex, toIndex, size);
+        ensureWritable();
+        shift(toIndex, fromIndex, size - toIndex);
+        Arrays.fill(lapColors, size - (toIndex - fromIndex), size, null);
+        size -= toIndex - fromIndex;
+        onNodesRemoved(fromIndex, toIndex);
+    }
+
+    /**
+     * Update the lap index after a node was inserted at the given index
+     */
+    private void onNodeInserted(int index)
+    {
+        // Shift lap starts and divider indices at or after the insertion point, an append has none
+        int position = index < size - 1 ? lapStartPosition(index) : lapStartCount;
+        if (index < size - 1)
+        {
+            for (int i = position; i < lapStartCount; i++)
             {
-                LapDividerNode lapDivider = (LapDividerNode) node;
-                if (lapDivider.getLapNumber() == lapNumber)
+                lapStarts[i]++;
+            }
+            for (Map.Entry<Integer, Integer> entry : lapDividerIndex.entrySet())
+            {
+                if (entry.getValue() >= index)
                 {
-                    return lapDivider.getColor();
+                    entry.setValue(entry.getValue() + 1);
                 }
             }
         }
-        return null;
+
+        if (types[index] == TYPE_POINT)
+        {
+            lapAt[index] = index > 0 ? lapAt[index - 1] : 1;
+            return;
+        }
+
+        if (lapStartCount == lapStarts.length)
+        {
+            lapStarts = Arrays.copyOf(lapStarts, lapStarts.length * 2);
+        }
+        System.arraycopy(lapStarts, position, lapStarts, position + 1, lapStartCount - position);
+        lapStarts[position] = index;
+        lapStartCount++;
+
+        Integer existing = lapDividerIndex.get(laps[index]);
+        if (existing == null || existing > index)
+        {
+            lapDividerIndex.put(laps[index], index);
+        }
+        relabelLap(index);
     }
-    
+
     /**
-     * Set the color for a lap divider
+     * Update the lap index after the nodes from fromIndex to toIndex (exclusive) were removed
      */
-    public void setLapColor(int lapNumber, Color color)
+    private void onNodesRemoved(int fromIndex, int toIndex)
     {
-        for (RouteNode node : route)
+        int removed = toIndex - fromIndex;
+        int from = lapStartPosition(fromIndex);
+        int to = lapStartPosition(toIndex);
+        for (int i = to; i < lapStartCount; i++)
+        {
+            lapStarts[i] -= removed;
+        }
+        System.arraycopy(lapStarts, to, lapStarts, from, lapStartCount - to);
+        lapStartCount -= to - from;
+
+        if (to == from)
+        {
+            // Only points were removed, lap numbers of the remaining nodes are unchanged
+            shiftLapDividerIndex(toIndex, removed);
+            return;
+        }
+
+        boolean orphaned = false;
+        for (Iterator<Map.Entry<Integer, Integer>> it = lapDividerIndex.entrySet().iterator(); it.hasNext(); )
         {
-            if (node instanceof LapDividerNode)
+            Map.Entry<Integer, Integer> entry = it.next();
+            if (entry.getValue() >= toIndex)
+            {
+                entry.setValue(entry.getValue() - removed);
+            }
+            else if (entry.getValue() >= fromIndex)
             {
-                LapDividerNode lapDivider = (LapDividerNode) node;
-                if (lapDivider.getLapNumber() == lapNumber)
+                it.remove();
+                orphaned = true;
+            }
+        }
+        if (orphaned)
+        {
+            // Another divider may reuse the removed lap number
+            for (int i = from; i < lapStartCount; i++)
+            {
+                Integer existing = lapDividerIndex.get(laps[lapStarts[i]]);
+                if (existing == null || existing > lapStarts[i])
                 {
-                    lapDivider.setColor(color);
-                    return;
+                    lapDividerIndex.put(laps[lapStarts[i]], lapStarts[i]);
                 }
             }
         }
+
+        if (fromIndex < size)
+        {
+            relabelLap(fromIndex);
+        }
     }
-    
-    public UUID getFileUuid()
+
+    private void shiftLapDividerIndex(int fromIndex, int removed)
     {
-        return fileUuid;
+        for (Map.Entry<Integer, Integer> entry : lapDividerIndex.entrySet())
+        {
+            if (entry.getValue() >= fromIndex)
+            {
+                entry.setValue(entry.getValue() - removed);
+            }
+        }
     }
-    
-    public void setFileUuid(UUID fileUuid)
+
+    /**
+     * Recompute the lap numbers from the given index up to the next lap divider
+     */
+    private void relabelLap(int index)
     {
-        this.fileUuid = fileUuid;
+        int lap = types[index] == TYPE_LAP_DIVIDER ? laps[index] : (index > 0 ? lapAt[index - 1] : 1);
+        lapAt[index] = lap;
+        for (int i = index + 1; i < size && types[i] != TYPE_LAP_DIVIDER; i++)
+        {
+            lapAt[i] = lap;
+        }
     }
 
-    @Override
-    public String toString()
+    /**
+     * Get the position in lapStarts of the first lap divider at or after the given index
+     */
+    private int lapStartPosition(int index)
     {
-        return name;
+        int position = Arrays.binarySearch(lapStarts, 0, lapStartCount, index);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    private void store(int index, RouteNode node)
+    {
+        if (node instanceof PointNode)
+        {
+            PointNode point = (PointNode) node;
+            types[index] = TYPE_POINT;
+            xs[index] = point.getX();
+            ys[index] = point.getY();
+            planes[index] = point.getPlane();
+            laps[index] = 0;
+            lapColors[index] = null;
+        }
+        else if (node instanceof LapDividerNode)
+        {
+            LapDividerNode lapDivider = (LapDividerNode) node;
+            types[index] = TYPE_LAP_DIVIDER;
+            xs[index] = 0;
+            ys[index] = 0;
+            planes[index] = 0;
+            laps[index] = lapDivider.getLapNumber();
+            lapColors[index] = lapDivider.getColor();
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown route node type: " + node);
+        }
+    }
+
+    private void shift(int from, int to, int length)
+    {
+        System.arraycopy(types, from, types, to, length);
+        System.arraycopy(xs, from, xs, to, length);
+        System.arraycopy(ys, from, ys, to, length);
+        System.arraycopy(planes, from, planes, to, length);
+        System.arraycopy(laps, from, laps, to, length);
+        System.arraycopy(lapColors, from, lapColors, to, length);
+        System.arraycopy(lapAt, from, lapAt, to, length);
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity <= xs.length)
+        {
+            return;
+        }
+        int newCapacity = Math.max(capacity, xs.length + (xs.length >> 1));
+        types = Arrays.copyOf(types, newCapacity);
+        xs = Arrays.copyOf(xs, newCapacity);
+        ys = Arrays.copyOf(ys, newCapacity);
+        planes = Arrays.copyOf(planes, newCapacity);
+        laps = Arrays.copyOf(laps, newCapacity);
+        lapColors = Arrays.copyOf(lapColors, newCapacity);
+        lapAt = Arrays.copyOf(lapAt, newCapacity);
     }
 }
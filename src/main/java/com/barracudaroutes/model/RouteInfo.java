@@ -0,0 +1,165 @@
+package com.barracudaroutes.model;
+
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * Metadata of a route in the library, enough to list it without loading its nodes.
+ * Entries are immutable and replaced whenever the route changes. They are equal when they
+ * describe the same route, so an updated entry takes the place of the old one in lists.
+ */
+public final class RouteInfo
+{
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final UUID uuid;
+    private final String name;
+    private final String trialName;
+    private final Path path; // Route file, null until the route has been saved
+    private final long lastModified;
+    private final long size;
+    private final int pointCount;
+    private final int lapCount;
+    private final double length; // In tiles, between consecutive points on the same plane
+    private final long contentHash; // Of the trial and nodes, to recognise copies of a route
+
+    public RouteInfo(UUID uuid, String name, String trialName, Path path, long lastModified, long size,
+                     int pointCount, int lapCount, double length, long contentHash)
+    {
+        this.uuid = uuid;
+        this.name = name;
+        this.trialName = trialName;
+        this.path = path;
+        this.lastModified = lastModified;
+        this.size = size;
+        this.pointCount = pointCount;
+        this.lapCount = lapCount;
+        this.length = length;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Describe a route as it is now, keeping the file details of the entry it replaces
+     */
+    public static RouteInfo of(Route route, RouteInfo previous)
+    {
+        return of(route, previous != null ? previous.path : null,
+            previous != null ? previous.lastModified : 0, previous != null ? previous.size : 0);
+    }
+
+    public static RouteInfo of(Route route, Path path, long lastModified, long size)
+    {
+        RouteSnapshot snapshot = route.getSnapshot();
+        int lapCount = 0;
+        double length = 0;
+        int last = -1;
+        long hash = hash(FNV_OFFSET, route.getTrialName() != null ? route.getTrialName().hashCode() : 0);
+        for (int i = 0; i < snapshot.getNodeCount(); i++)
+        {
+            if (snapshot.isLapDivider(i))
+            {
+                lapCount++;
+                hash = hash(hash, -1 - snapshot.getLapNumber(i));
+                continue;
+            }
+            hash = hash(hash(hash(hash, snapshot.getX(i)), snapshot.getY(i)), snapshot.getPlane(i));
+            if (last >= 0 && snapshot.getPlane(last) == snapshot.getPlane(i))
+            {
+                length += Math.hypot(snapshot.getX(i) - snapshot.getX(last), snapshot.getY(i) - snapshot.getY(last));
+            }
+            last = i;
+        }
+        return new RouteInfo(route.getFileUuid(), route.getName(), route.getTrialName(), path, lastModified, size,
+            snapshot.getPointCount(), lapCount, length, hash);
+    }
+
+    /**
+     * Describe the route under a new name or trial, keeping everything else. Cheap, unlike {@link #of},
+     * for use while the route is being edited.
+     */
+    public RouteInfo withNames(String name, String trialName)
+    {
+        return new RouteInfo(uuid, name, trialName, path, lastModified, size, pointCount, lapCount, length, contentHash);
+    }
+
+    /**
+     * Mix an int into a 64-bit FNV-1a hash
+     */
+    private static long hash(long hash, int value)
+    {
+        for (int shift = 0; shift < 32; shift += 8)
+        {
+            hash = (hash ^ ((value >>> shift) & 0xFF)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    public UUID getUuid()
+    {
+        return uuid;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getTrialName()
+    {
+        return trialName;
+    }
+
+    public Path getPath()
+    {
+        return path;
+    }
+
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    public int getPointCount()
+    {
+        return pointCount;
+    }
+
+    public int getLapCount()
+    {
+        return lapCount;
+    }
+
+    public double getLength()
+    {
+        return length;
+    }
+
+    public long getContentHash()
+    {
+        return contentHash;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return o instanceof RouteInfo && uuid.equals(((RouteInfo) o).uuid);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return uuid.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
@@ -0,0 +1,288 @@
+package com.barracudaroutes.model;
+
+import com.barracudaroutes.model.routenodes.LapDividerNode;
+import com.barracudaroutes.model.routenodes.PointNode;
+import com.barracudaroutes.model.routenodes.RouteNode;
+
+import java.awt.Color;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable view of a route's nodes at one point in time.
+ * A new snapshot with a higher version is published by {@link Route} on every edit,
+ * so snapshots can be read from any thread without locking.
+ */
+public final class RouteSnapshot
+{
+    static final byte TYPE_POINT = 0;
+    static final byte TYPE_LAP_DIVIDER = 1;
+
+    private final long version;
+    private final int size;
+    private final byte[] types;
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] planes;
+    private final int[] laps;
+    private final Color[] lapColors;
+    private final int[] lapAt;
+    private final int[] lapStarts;
+    private final int lapStartCount;
+    private final Map<Integer, Integer> lapDividerIndex;
+    private final List<RouteNode> nodeView = new NodeView();
+    private volatile RouteSpatialIndex spatialIndex;
+    private volatile int[] pointNodeIndices;
+
+    // The arrays may be shared with later snapshots of the same route, which only ever write past this size
+    RouteSnapshot(long version, int size, byte[] types, int[] xs, int[] ys, int[] planes, int[] laps, Color[] lapColors,
+                  int[] lapAt, int[] lapStarts, int lapStartCount, Map<Integer, Integer> lapDividerIndex)
+    {
+        this.version = version;
+        this.size = size;
+        this.types = types;
+        this.xs = xs;
+        this.ys = ys;
+        this.planes = planes;
+        this.laps = laps;
+        this.lapColors = lapColors;
+        this.lapAt = lapAt;
+        this.lapStarts = lapStarts;
+        this.lapStartCount = lapStartCount;
+        this.lapDividerIndex = lapDividerIndex;
+    }
+
+    /**
+     * Get the version of this snapshot. Versions are unique across all routes and increase with every edit.
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    public int getNodeCount()
+    {
+        return size;
+    }
+
+    public boolean isLapDivider(int index)
+    {
+        Objects.checkIndex(index, size);
+        return types[index] == TYPE_LAP_DIVIDER;
+    }
+
+    public boolean isPoint(int index)
+    {
+        Objects.checkIndex(index, size);
+        return types[index] == TYPE_POINT;
+    }
+
+    public int getX(int index)
+    {
+        Objects.checkIndex(index, size);
+        return xs[index];
+    }
+
+    public int getY(int index)
+    {
+        Objects.checkIndex(index, size);
+        return ys[index];
+    }
+
+    public int getPlane(int index)
+    {
+        Objects.checkIndex(index, size);
+        return planes[index];
+    }
+
+    /**
+     * Get the lap number of the lap divider at the given index
+     */
+    public int getLapNumber(int index)
+    {
+        Objects.checkIndex(index, size);
+        return laps[index];
+    }
+
+    /**
+     * Get the current lap number at a given index in the route
+     */
+    public int getLapAt(int index)
+    {
+        if (index < 0 || size == 0)
+        {
+            return 1;
+        }
+        return lapAt[Math.min(index, size - 1)];
+    }
+
+    /**
+     * Get the index of the first lap divider with the given lap number, or -1 if there is none
+     */
+    public int getLapDividerIndex(int lapNumber)
+    {
+        Integer index = lapDividerIndex.get(lapNumber);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Get the index of the first lap divider after the given index, or the node count if there is none
+     */
+    public int getNextLapDividerIndex(int index)
+    {
+        int position = Arrays.binarySearch(lapStarts, 0, lapStartCount, index + 1);
+        if (position < 0)
+        {
+            position = -position - 1;
+        }
+        return position < lapStartCount ? lapStarts[position] : size;
+    }
+
+    /**
+     * Get the highest lap number of any lap divider, or 0 if there are none
+     */
+    public int getHighestLap()
+    {
+        int highest = 0;
+        for (int lap : lapDividerIndex.keySet())
+        {
+            highest = Math.max(highest, lap);
+        }
+        return highest;
+    }
+
+    /**
+     * Get the color for a lap divider, or null if using default
+     */
+    public Color getLapColor(int lapNumber)
+    {
+        int index = getLapDividerIndex(lapNumber);
+        return index >= 0 ? lapColors[index] : null;
+    }
+
+    /**
+     * Create a node view for the node at the given index
+     */
+    public RouteNode getNode(int index)
+    {
+        Objects.checkIndex(index, size);
+        if (types[index] == TYPE_LAP_DIVIDER)
+        {
+            return new LapDividerNode(laps[index], lapColors[index]);
+        }
+        return new PointNode(xs[index], ys[index], planes[index]);
+    }
+
+    /**
+     * Get a read-only list view of the nodes, creating node views on demand
+     */
+    public List<RouteNode> getNodes()
+    {
+        return nodeView;
+    }
+
+    /**
+     * Get the spatial index over this snapshot's points, building it on first use
+     */
+    public RouteSpatialIndex getSpatialIndex()
+    {
+        // Racing builders produce identical indexes, so there is no need to lock
+        RouteSpatialIndex index = spatialIndex;
+        if (index == null)
+        {
+            index = new RouteSpatialIndex(this);
+            spatialIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Get the number of point nodes, excluding lap dividers
+     */
+    public int getPointCount()
+    {
+        return getPointNodeIndices().length;
+    }
+
+    /**
+     * Get the node index of the point with the given ordinal, counting only point nodes
+     */
+    public int getPointNodeIndex(int ordinal)
+    {
+        int[] indices = getPointNodeIndices();
+        Objects.checkIndex(ordinal, indices.length);
+        return indices[ordinal];
+    }
+
+    /**
+     * Get the ordinal of the point at the given node index, or -1 if the node is not a point
+     */
+    public int getPointOrdinal(int index)
+    {
+        int ordinal = Arrays.binarySearch(getPointNodeIndices(), index);
+        return ordinal >= 0 ? ordinal : -1;
+    }
+
+    private int[] getPointNodeIndices()
+    {
+        // Built once per snapshot like the spatial index, racing builders produce identical arrays
+        int[] indices = pointNodeIndices;
+        if (indices == null)
+        {
+            int count = 0;
+            for (int i = 0; i < size; i++)
+            {
+                if (types[i] == TYPE_POINT)
+                {
+                    count++;
+                }
+            }
+            indices = new int[count];
+            count = 0;
+            for (int i = 0; i < size; i++)
+            {
+                if (types[i] == TYPE_POINT)
+                {
+                    indices[count++] = i;
+                }
+            }
+            pointNodeIndices = indices;
+        }
+        return indices;
+    }
+
+    /**
+     * Get all point nodes from the route (excluding lap dividers)
+     */
+    public List<PointNode> getPointNodes()
+    {
+        List<PointNode> points = new ArrayList<>();
+        for (int i = 0; i < size; i++)
+        {
+            if (types[i] == TYPE_POINT)
+            {
+                points.add(new PointNode(xs[i], ys[i], planes[i]));
+            }
+        }
+        return points;
+    }
+
+    private class NodeView extends AbstractList<RouteNode>
+    {
+        @Override
+        public RouteNode get(int index)
+        {
+            return getNode(index);
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+    }
+}
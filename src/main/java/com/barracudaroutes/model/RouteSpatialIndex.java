@@ -0,0 +1,269 @@
+package com.barracudaroutes.model;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Grid index over the points of a {@link RouteSnapshot}, bucketed into 8x8 tile chunks per plane.
+ * Distances are Chebyshev tile distances, the same metric used to hide tiles near the player.
+ * Every query reports node indices of the snapshot the index was built from.
+ */
+public final class RouteSpatialIndex
+{
+    private static final int BUCKET_SHIFT = 3; // 8x8 tiles per bucket
+    private static final int BUCKET_SIZE = 1 << BUCKET_SHIFT;
+    private static final int COORD_BITS = 14;
+    private static final int COORD_MASK = (1 << COORD_BITS) - 1;
+
+    private final RouteSnapshot nodes;
+    private final int[] bucketKeys; // Sorted, unique
+    private final int[] bucketStarts; // Start of each bucket in pointIndices, plus a final end marker
+    private final int[] pointIndices; // Node indices grouped by bucket, ascending within a bucket
+    private final int minBucketX;
+    private final int minBucketY;
+    private final int maxBucketX;
+    private final int maxBucketY;
+
+    RouteSpatialIndex(RouteSnapshot nodes)
+    {
+        this.nodes = nodes;
+
+        int pointCount = 0;
+        for (int i = 0; i < nodes.getNodeCount(); i++)
+        {
+            if (nodes.isPoint(i))
+            {
+                pointCount++;
+            }
+        }
+
+        // Sort (bucket key, node index) pairs so every bucket ends up as one contiguous run
+        long[] entries = new long[pointCount];
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        int count = 0;
+        for (int i = 0; i < nodes.getNodeCount(); i++)
+        {
+            if (!nodes.isPoint(i))
+            {
+                continue;
+            }
+            int bucketX = nodes.getX(i) >> BUCKET_SHIFT;
+            int bucketY = nodes.getY(i) >> BUCKET_SHIFT;
+            minX = Math.min(minX, bucketX);
+            minY = Math.min(minY, bucketY);
+            maxX = Math.max(maxX, bucketX);
+            maxY = Math.max(maxY, bucketY);
+            entries[count++] = ((long) bucketKey(nodes.getPlane(i), bucketX, bucketY) << 32) | i;
+        }
+        Arrays.sort(entries);
+
+        int[] keys = new int[pointCount];
+        int[] starts = new int[pointCount + 1];
+        pointIndices = new int[pointCount];
+        int bucketCount = 0;
+        for (int i = 0; i < pointCount; i++)
+        {
+            int key = (int) (entries[i] >>> 32);
+            if (bucketCount == 0 || keys[bucketCount - 1] != key)
+            {
+                keys[bucketCount] = key;
+                starts[bucketCount] = i;
+                bucketCount++;
+            }
+            pointIndices[i] = (int) entries[i];
+        }
+        starts[bucketCount] = pointCount;
+
+        bucketKeys = Arrays.copyOf(keys, bucketCount);
+        bucketStarts = Arrays.copyOf(starts, bucketCount + 1);
+        minBucketX = minX;
+        minBucketY = minY;
+        maxBucketX = maxX;
+        maxBucketY = maxY;
+    }
+
+    /**
+     * Report every point on the plane inside the given tile bounds (inclusive)
+     */
+    public void forEachInBounds(int plane, int minX, int minY, int maxX, int maxY, IntConsumer consumer)
+    {
+        if (minX > maxX || minY > maxY || pointIndices.length == 0)
+        {
+            return;
+        }
+
+        int fromBucketX = Math.max(minX >> BUCKET_SHIFT, minBucketX);
+        int fromBucketY = Math.max(minY >> BUCKET_SHIFT, minBucketY);
+        int toBucketX = Math.min(maxX >> BUCKET_SHIFT, maxBucketX);
+        int toBucketY = Math.min(maxY >> BUCKET_SHIFT, maxBucketY);
+        if (fromBucketX > toBucketX || fromBucketY > toBucketY)
+        {
+            return;
+        }
+
+        long bucketsInBounds = (long) (toBucketX - fromBucketX + 1) * (toBucketY - fromBucketY + 1);
+        if (bucketsInBounds > bucketKeys.length)
+        {
+            // Probing would cost more than checking every point
+            for (int index : pointIndices)
+            {
+                acceptIfInBounds(index, plane, minX, minY, maxX, maxY, consumer);
+            }
+            return;
+        }
+
+        for (int bucketX = fromBucketX; bucketX <= toBucketX; bucketX++)
+        {
+            for (int bucketY = fromBucketY; bucketY <= toBucketY; bucketY++)
+            {
+                int bucket = Arrays.binarySearch(bucketKeys, bucketKey(plane, bucketX, bucketY));
+                if (bucket < 0)
+                {
+                    continue;
+                }
+                for (int i = bucketStarts[bucket]; i < bucketStarts[bucket + 1]; i++)
+                {
+                    acceptIfInBounds(pointIndices[i], plane, minX, minY, maxX, maxY, consumer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Report every point on the plane within the given tile distance of (x, y)
+     */
+    public void forEachWithinDistance(int x, int y, int plane, int distance, IntConsumer consumer)
+    {
+        if (distance < 0)
+        {
+            return;
+        }
+        forEachInBounds(plane, x - distance, y - distance, x + distance, y + distance, consumer);
+    }
+
+    /**
+     * Find the lowest node index of a point on the plane within the given tile distance of (x, y)
+     *
+     * @return the node index, or -1 if there is no such point
+     */
+    public int findFirstWithinDistance(int x, int y, int plane, int distance)
+    {
+        return findFirstWithinDistance(x, y, plane, distance, 0);
+    }
+
+    /**
+     * Find the lowest node index, at or after fromIndex, of a point on the plane within the given tile distance of (x, y)
+     *
+     * @return the node index, or -1 if there is no such point
+     */
+    public int findFirstWithinDistance(int x, int y, int plane, int distance, int fromIndex)
+    {
+        int[] first = {-1};
+        forEachWithinDistance(x, y, plane, distance, index -> {
+            if (index >= fromIndex && (first[0] < 0 || index < first[0]))
+            {
+                first[0] = index;
+            }
+        });
+        return first[0];
+    }
+
+    /**
+     * Find the point on the plane closest to (x, y). Ties go to the lowest node index.
+     *
+     * @param maxDistance only consider points within this tile distance
+     * @return the node index, or -1 if there is no point within maxDistance
+     */
+    public int findNearest(int x, int y, int plane, int maxDistance)
+    {
+        if (pointIndices.length == 0 || maxDistance < 0)
+        {
+            return -1;
+        }
+
+        int centerX = x >> BUCKET_SHIFT;
+        int centerY = y >> BUCKET_SHIFT;
+        int maxRing = Math.max(Math.max(centerX - minBucketX, maxBucketX - centerX),
+            Math.max(centerY - minBucketY, maxBucketY - centerY));
+        maxRing = Math.min(maxRing, (maxDistance >> BUCKET_SHIFT) + 1);
+
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        if ((2L * maxRing + 1) * (2L * maxRing + 1) > 4L * bucketKeys.length)
+        {
+            // Far away from the route, probing empty rings would cost more than checking every point
+            for (int index : pointIndices)
+            {
+                int distance = nodes.getPlane(index) == plane
+                    ? Math.max(Math.abs(nodes.getX(index) - x), Math.abs(nodes.getY(index) - y))
+                    : Integer.MAX_VALUE;
+                if (distance <= maxDistance && (distance < bestDistance || (distance == bestDistance && index < best)))
+                {
+                    best = index;
+                    bestDistance = distance;
+                }
+            }
+            return best;
+        }
+
+        for (int ring = 0; ring <= maxRing; ring++)
+        {
+            for (int bucketX = centerX - ring; bucketX <= centerX + ring; bucketX++)
+            {
+                // Only the outline of the ring, the inside was covered by earlier rings
+                int step = (bucketX == centerX - ring || bucketX == centerX + ring) ? 1 : Math.max(1, 2 * ring);
+                for (int bucketY = centerY - ring; bucketY <= centerY + ring; bucketY += step)
+                {
+                    int bucket = Arrays.binarySearch(bucketKeys, bucketKey(plane, bucketX, bucketY));
+                    if (bucket < 0)
+                    {
+                        continue;
+                    }
+                    for (int i = bucketStarts[bucket]; i < bucketStarts[bucket + 1]; i++)
+                    {
+                        int index = pointIndices[i];
+                        if (nodes.getPlane(index) != plane)
+                        {
+                            continue;
+                        }
+                        int distance = Math.max(Math.abs(nodes.getX(index) - x), Math.abs(nodes.getY(index) - y));
+                        if (distance <= maxDistance && (distance < bestDistance || (distance == bestDistance && index < best)))
+                        {
+                            best = index;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+            }
+
+            // Points in later rings are at least ring * BUCKET_SIZE + 1 tiles away
+            if (best >= 0 && bestDistance <= ring * BUCKET_SIZE)
+            {
+                break;
+            }
+        }
+        return best;
+    }
+
+    private void acceptIfInBounds(int index, int plane, int minX, int minY, int maxX, int maxY, IntConsumer consumer)
+    {
+        int x = nodes.getX(index);
+        int y = nodes.getY(index);
+        if (nodes.getPlane(index) == plane && x >= minX && x <= maxX && y >= minY && y <= maxY)
+        {
+            consumer.accept(index);
+        }
+    }
+
+    /**
+     * Pack a bucket into an int key. Coordinates outside the packed range wrap around and share
+     * buckets with other chunks, which only costs extra candidates since queries check real coordinates.
+     */
+    private static int bucketKey(int plane, int bucketX, int bucketY)
+    {
+        return ((plane & 0x3) << (2 * COORD_BITS)) | ((bucketX & COORD_MASK) << COORD_BITS) | (bucketY & COORD_MASK);
+    }
+}
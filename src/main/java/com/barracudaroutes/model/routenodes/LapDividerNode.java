@@ -3,7 +3,8 @@ package com.barracudaroutes.model.routenodes;
 import java.awt.Color;
 
 /**
- * Represents a lap divider in the route
+ * Represents a lap divider in the route.
+ * Routes store their nodes packed, so instances are detached copies of the stored values.
  */
 public class LapDividerNode implements RouteNode
 {
@@ -1,7 +1,8 @@
 package com.barracudaroutes.model.routenodes;
 
 /**
- * Represents a point in the route
+ * Represents a point in the route.
+ * Routes store their nodes packed, so instances are detached copies of the stored values.
  */
 public class PointNode implements RouteNode
 {
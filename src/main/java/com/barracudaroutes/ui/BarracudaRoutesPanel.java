@@ -2,6 +2,7 @@ package com.barracudaroutes.ui;
 
 import com.barracudaroutes.BarracudaRoutesPlugin;
 import com.barracudaroutes.model.Route;
+import com.barracudaroutes.model.RouteInfo;
 import com.barracudaroutes.managers.RouteManager;
 import com.barracudaroutes.managers.RouteImportExportManager;
 import net.runelite.client.ui.JagexColors;
@@ -10,9 +11,13 @@ import net.runelite.client.util.ImageUtil;
 import net.runelite.client.util.SwingUtil;
 
 import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import javax.swing.border.EmptyBorder;
 
 public class BarracudaRoutesPanel extends PluginPanel
@@ -31,13 +36,20 @@ public class BarracudaRoutesPanel extends PluginPanel
     private DefaultListModel<Object> listModel;
     
     private static final String[] TRIAL_OPTIONS = {"The Tempor Tantrum", "Jubbly Jive", "Gwenith Glide"};
+    private static final String ALL_TRIALS = "All trials";
+    private static final FileNameExtensionFilter PACK_FILE_FILTER = new FileNameExtensionFilter("Route pack (*.zip)", "zip");
+    private static final int MAX_LISTED_SKIPPED = 10; // Route names listed per reason after a route pack import
     private JButton exportButton;
     private JButton editButton;
     private JButton deleteButton;
     private JButton importButton;
+    private JButton importPackButton;
+    private JButton exportPackButton;
+    private final JProgressBar packProgressBar = new JProgressBar();
     private JPanel actionButtonsPanel;
     private RouteEditPanel editPanel;
     private JComponent editPanelComponent;
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean();
     
     private static final ImageIcon EDIT_ICON;
     private static final ImageIcon DELETE_ICON;
@@ -79,12 +91,26 @@ public class BarracudaRoutesPanel extends PluginPanel
         titleLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
         titlePanel.add(titleLabel, BorderLayout.WEST);
         
-        // Import button on the right
+        // Import and route pack buttons on the right
+        JPanel titleButtonsPanel = new JPanel();
+        titleButtonsPanel.setLayout(new BoxLayout(titleButtonsPanel, BoxLayout.X_AXIS));
+        exportPackButton = createButton(EXPORT_ICON, "Export route pack", () -> onExportPack());
+        importPackButton = createButton(IMPORT_ICON, "Import route pack", () -> onImportPack());
         importButton = createButton(IMPORT_ICON, "Import route", () -> onImport());
-        titlePanel.add(importButton, BorderLayout.EAST);
+        titleButtonsPanel.add(exportPackButton);
+        titleButtonsPanel.add(importPackButton);
+        titleButtonsPanel.add(importButton);
+        titlePanel.add(titleButtonsPanel, BorderLayout.EAST);
 
         mainPanel.add(titlePanel);
         
+        // Progress of route pack export and import, only shown while one runs
+        packProgressBar.setAlignmentX(Component.LEFT_ALIGNMENT);
+        packProgressBar.setMaximumSize(new Dimension(Integer.MAX_VALUE, 16));
+        packProgressBar.setStringPainted(true);
+        packProgressBar.setVisible(false);
+        mainPanel.add(packProgressBar);
+        
         JPanel top = new JPanel();
         top.setLayout(new BorderLayout());
         top.setAlignmentX(Component.LEFT_ALIGNMENT); // Explicitly align to left
@@ -147,7 +173,7 @@ public class BarracudaRoutesPanel extends PluginPanel
                 if (e.getClickCount() == 2) {
                     Object selected = routesList.getSelectedValue();
                     // Only allow editing routes, not empty markers or trial headers
-                    if (selected instanceof Route) {
+                    if (selected instanceof RouteInfo) {
                         onEditSelected();
                     }
                 }
@@ -174,13 +200,33 @@ public class BarracudaRoutesPanel extends PluginPanel
         updateSelection();
     }
 
+    /**
+     * Called on a loading thread as routes are loaded. Refreshes are coalesced, so a burst of loaded
+     * routes only rebuilds the list once.
+     */
+    public void onRoutesLoaded()
+    {
+        if (refreshScheduled.compareAndSet(false, true))
+        {
+            SwingUtilities.invokeLater(() -> {
+                refreshScheduled.set(false);
+                Object selected = routesList.getSelectedValue();
+                populateRoutesList();
+                if (selected instanceof RouteInfo)
+                {
+                    routesList.setSelectedValue(selected, false);
+                }
+            });
+        }
+    }
+    
     private void populateRoutesList()
     {
         listModel.clear();
         
         // Group routes by trial
-        java.util.Map<String, java.util.List<Route>> routesByTrial = new java.util.HashMap<>();
-        for (Route route : routeManager.getAllRoutes())
+        java.util.Map<String, java.util.List<RouteInfo>> routesByTrial = new java.util.HashMap<>();
+        for (RouteInfo route : routeManager.getAllRoutes())
         {
             String trialName = route.getTrialName();
             if (trialName == null || trialName.isEmpty())
@@ -199,7 +245,7 @@ public class BarracudaRoutesPanel extends PluginPanel
             // Add routes for this trial (if any)
             if (routesByTrial.containsKey(trialName) && !routesByTrial.get(trialName).isEmpty())
             {
-                for (Route route : routesByTrial.get(trialName))
+                for (RouteInfo route : routesByTrial.get(trialName))
                 {
                     listModel.addElement(route);
                 }
@@ -226,9 +272,9 @@ public class BarracudaRoutesPanel extends PluginPanel
     private void onEditSelected()
     {
         Object selected = routesList.getSelectedValue();
-        if (selected instanceof Route)
+        if (selected instanceof RouteInfo)
         {
-            startEditing((Route) selected);
+            withRoute((RouteInfo) selected, this::startEditing);
         }
         // Ignore EmptyTrialMarker and String (trial headers)
     }
@@ -236,14 +282,14 @@ public class BarracudaRoutesPanel extends PluginPanel
     private void onDeleteSelected()
     {
         Object selected = routesList.getSelectedValue();
-        if (selected instanceof Route)
+        if (selected instanceof RouteInfo)
         {
-            onDelete((Route) selected);
+            onDelete((RouteInfo) selected);
         }
         // Ignore EmptyTrialMarker and String (trial headers)
     }
 
-    private void onDelete(Route route)
+    private void onDelete(RouteInfo route)
     {
         // Show confirmation dialog
         if (!isConfirmed("Are you sure you want to delete this route?", "Delete Route"))
@@ -251,26 +297,39 @@ public class BarracudaRoutesPanel extends PluginPanel
             return;
         }
         
+        // Unloaded routes are deleted without loading them, and a loaded route stops being active
         routeManager.removeRoute(route);
         populateRoutesList();
-        
-        // Clear selection if the deleted route was selected
-        if (routeManager.getActiveRoute() == route)
-        {
-            routeManager.setActiveRoute(null);
-            routesList.clearSelection();
-        }
+        routesList.clearSelection();
     }
     
     private void onExportSelected()
     {
         Object selected = routesList.getSelectedValue();
-        if (selected instanceof Route)
+        if (selected instanceof RouteInfo)
         {
-            onExport((Route) selected);
+            withRoute((RouteInfo) selected, this::onExport);
         }
     }
     
+    /**
+     * Load a route's nodes in the background if needed, then run the action with it on the event dispatch thread
+     */
+    private void withRoute(RouteInfo info, Consumer<Route> action)
+    {
+        routeManager.loadRoute(info).thenAccept(route -> SwingUtilities.invokeLater(() -> {
+            if (route == null)
+            {
+                JOptionPane.showMessageDialog(this,
+                    "Failed to load route: " + info.getName(),
+                    "Load Route Failed",
+                    JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            action.accept(route);
+        }));
+    }
+    
     private void onExport(Route route)
     {
         if (route == null)
@@ -299,74 +358,230 @@ public class BarracudaRoutesPanel extends PluginPanel
     
     private void onImport()
     {
-        try
+        // Show dialog to paste a route share code or JSON
+        String json = JOptionPane.showInputDialog(this,
+            "Enter route data",
+            "Import New Route",
+            JOptionPane.PLAIN_MESSAGE);
+        
+        // Cancel button was clicked
+        if (json == null)
         {
-            // Show dialog to paste route JSON
-            String json = JOptionPane.showInputDialog(this,
-                "Enter route data",
-                "Import New Route",
-                JOptionPane.PLAIN_MESSAGE);
-            
-            // Cancel button was clicked
-            if (json == null)
-            {
-                return;
-            }
-            
-            Route importedRoute = importExportManager.importRouteFromJson(json);
-            
-            if (importedRoute != null)
-            {
-                // Check if route with same name already exists and rename if needed
-                String originalName = importedRoute.getName();
-                String newName = originalName;
-                int counter = 1;
-                while (true)
+            return;
+        }
+        
+        // Parse off the event dispatch thread, a long route shouldn't freeze the client
+        importButton.setEnabled(false);
+        importExportManager.importRouteAsync(json)
+            .whenComplete((importedRoute, e) -> SwingUtilities.invokeLater(() -> {
+                importButton.setEnabled(true);
+                if (e != null)
                 {
-                    final String nameToCheck = newName;
-                    boolean nameExists = routeManager.getAllRoutes().stream().anyMatch(r -> r.getName().equals(nameToCheck));
-                    if (!nameExists)
-                    {
-                        break;
-                    }
-                    newName = originalName + " (" + counter + ")";
-                    counter++;
+                    JOptionPane.showMessageDialog(this,
+                        "Failed to import route: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()),
+                        "Import Route Failed",
+                        JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                onRouteImported(importedRoute);
+            }));
+    }
+    
+    private void onRouteImported(Route importedRoute)
+    {
+        // Offer to skip routes the library already has, rather than silently making a copy.
+        // Possible copies are loaded to compare them, which happens in the background.
+        routeManager.findSameRoute(importedRoute)
+            .exceptionally(e -> null) // If the library's route can't be read, import anyway
+            .thenAccept(sameRoute -> SwingUtilities.invokeLater(() -> {
+                if (sameRoute != null && !isConfirmed("You already have this route as \"" + sameRoute.getName()
+                    + "\". Import it again as a copy?", "Import Route"))
+                {
+                    return;
                 }
-                importedRoute.setName(newName);
                 
-                // Add the imported route
-                routeManager.addRoute(importedRoute);
+                // Add the imported route, renamed if a route with the same name already exists
+                String newName = routeManager.addImportedRoute(importedRoute);
                 populateRoutesList();
                 
                 JOptionPane.showMessageDialog(this,
                     "Route imported successfully: " + newName,
                     "Import Route Succeeded",
                     JOptionPane.INFORMATION_MESSAGE);
+            }));
+    }
+    
+    private void onExportPack()
+    {
+        // Export a single trial or the whole library
+        Object[] scopes = new Object[TRIAL_OPTIONS.length + 1];
+        scopes[0] = ALL_TRIALS;
+        System.arraycopy(TRIAL_OPTIONS, 0, scopes, 1, TRIAL_OPTIONS.length);
+        Object scope = JOptionPane.showInputDialog(this,
+            "Routes to export",
+            "Export Route Pack",
+            JOptionPane.PLAIN_MESSAGE,
+            null, scopes, scopes[0]);
+        if (scope == null)
+        {
+            return;
+        }
+        
+        java.util.List<RouteInfo> routes = new java.util.ArrayList<>();
+        for (RouteInfo route : routeManager.getAllRoutes())
+        {
+            String trialName = route.getTrialName();
+            if (trialName == null || trialName.isEmpty())
+            {
+                trialName = TRIAL_OPTIONS[0]; // Default to first trial
             }
-            else
+            if (scope == ALL_TRIALS || scope.equals(trialName))
             {
-                JOptionPane.showMessageDialog(this,
-                    "Invalid route data.",
-                    "Import Route Failed",
-                    JOptionPane.ERROR_MESSAGE);
+                routes.add(route);
             }
         }
-        catch (Exception e)
+        if (routes.isEmpty())
         {
             JOptionPane.showMessageDialog(this,
-                "Failed to import route: " + e.getMessage(),
-                "Import Route Failed",
-                JOptionPane.ERROR_MESSAGE);
+                "There are no routes to export.",
+                "Export Route Pack",
+                JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileFilter(PACK_FILE_FILTER);
+        fileChooser.setSelectedFile(new File(scope + ".zip"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+        {
+            return;
+        }
+        File file = fileChooser.getSelectedFile();
+        if (!file.getName().toLowerCase().endsWith(".zip"))
+        {
+            file = new File(file.getPath() + ".zip");
         }
+        
+        setPackInProgress(true);
+        importExportManager.exportRoutesToPack(routes, info -> routeManager.loadRoute(info).join(), file, this::onPackProgress)
+            .whenComplete((count, e) -> SwingUtilities.invokeLater(() -> {
+                setPackInProgress(false);
+                if (e != null)
+                {
+                    JOptionPane.showMessageDialog(this,
+                        "Failed to export routes: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()),
+                        "Export Route Pack Failed",
+                        JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                JOptionPane.showMessageDialog(this,
+                    "Exported " + count + " routes.",
+                    "Export Route Pack Succeeded",
+                    JOptionPane.INFORMATION_MESSAGE);
+            }));
+    }
+    
+    private void onImportPack()
+    {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setFileFilter(PACK_FILE_FILTER);
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+        {
+            return;
+        }
+        
+        setPackInProgress(true);
+        java.util.List<String> duplicates = java.util.Collections.synchronizedList(new java.util.ArrayList<>());
+        java.util.List<String> invalid = java.util.Collections.synchronizedList(new java.util.ArrayList<>());
+        importExportManager.importRoutesFromPack(fileChooser.getSelectedFile(), route -> {
+                // Skip routes the library already has, and add the rest as they are read so the list refreshes along the way
+                RouteInfo sameRoute = routeManager.findSameRoute(route).exceptionally(e -> null).join();
+                if (sameRoute != null)
+                {
+                    duplicates.add(route.getName() + " (as " + sameRoute.getName() + ")");
+                    return;
+                }
+                routeManager.addImportedRoute(route);
+                onRoutesLoaded();
+            }, invalid::add, this::onPackProgress)
+            .whenComplete((count, e) -> SwingUtilities.invokeLater(() -> {
+                setPackInProgress(false);
+                populateRoutesList();
+                if (e != null)
+                {
+                    JOptionPane.showMessageDialog(this,
+                        "Failed to import routes: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()),
+                        "Import Route Pack Failed",
+                        JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                JOptionPane.showMessageDialog(this,
+                    "Imported " + (count - duplicates.size()) + " routes."
+                        + describeSkipped("routes you already have", duplicates)
+                        + describeSkipped("entries that are not valid routes", invalid),
+                    "Import Route Pack Succeeded",
+                    JOptionPane.INFORMATION_MESSAGE);
+            }));
+    }
+    
+    /**
+     * List what a route pack import skipped, or nothing if it skipped nothing for this reason
+     */
+    private static String describeSkipped(String reason, java.util.List<String> names)
+    {
+        if (names.isEmpty())
+        {
+            return "";
+        }
+        StringBuilder text = new StringBuilder("\n\nSkipped " + names.size() + " " + reason + ":");
+        int listed = Math.min(names.size(), MAX_LISTED_SKIPPED);
+        for (int i = 0; i < listed; i++)
+        {
+            text.append("\n").append(names.get(i));
+        }
+        if (names.size() > listed)
+        {
+            text.append("\nand ").append(names.size() - listed).append(" more");
+        }
+        return text.toString();
+    }
+    
+    /**
+     * Called on the route pack thread as routes are written or read
+     */
+    private void onPackProgress(int done, int total)
+    {
+        SwingUtilities.invokeLater(() -> {
+            packProgressBar.setMaximum(total);
+            packProgressBar.setValue(done);
+            packProgressBar.setString(done + " / " + total);
+        });
+    }
+    
+    private void setPackInProgress(boolean inProgress)
+    {
+        // Only one route pack is exported or imported at a time
+        exportPackButton.setEnabled(!inProgress);
+        importPackButton.setEnabled(!inProgress);
+        packProgressBar.setValue(0);
+        packProgressBar.setString("");
+        packProgressBar.setVisible(inProgress);
+        mainPanel.revalidate();
     }
     
     private void updateSelection()
     {
         Object selected = routesList.getSelectedValue();
-        if (selected instanceof Route)
+        if (selected instanceof RouteInfo)
         {
-            routeManager.setActiveRoute((Route) selected);
             actionButtonsPanel.setVisible(true);
+            withRoute((RouteInfo) selected, route -> {
+                // The selection may have moved on while the route was loading
+                if (selected.equals(routesList.getSelectedValue()) && !routeManager.isInEditMode())
+                {
+                    routeManager.setActiveRoute(route);
+                }
+            });
         }
         else
         {
@@ -388,6 +603,7 @@ public class BarracudaRoutesPanel extends PluginPanel
                                                       boolean isSelected, boolean cellHasFocus)
         {
             JLabel label = (JLabel) super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            label.setToolTipText(null);
             
             if (value instanceof String)
             {
@@ -397,12 +613,14 @@ public class BarracudaRoutesPanel extends PluginPanel
                 label.setFont(label.getFont().deriveFont(Font.BOLD));
                 label.setForeground(JagexColors.DARK_ORANGE_INTERFACE_TEXT);
             }
-            else if (value instanceof Route)
+            else if (value instanceof RouteInfo)
             {
                 // Route item
-                Route route = (Route) value;
+                RouteInfo route = (RouteInfo) value;
                 label.setText("  " + route.getName()); // Indent routes under their trial
                 label.setFont(label.getFont().deriveFont(Font.PLAIN));
+                label.setToolTipText(String.format("%d tiles, %d laps, %.0f tiles long",
+                    route.getPointCount(), route.getLapCount(), route.getLength()));
             }
             else if (value instanceof EmptyTrialMarker)
             {
@@ -459,7 +677,7 @@ public class BarracudaRoutesPanel extends PluginPanel
         routeManager.setInEditMode(true);
         
         // Select the route in the list
-        int index = listModel.indexOf(route);
+        int index = listModel.indexOf(routeManager.getRouteInfo(route));
         if (index >= 0)
         {
             routesList.setSelectedIndex(index);
@@ -503,7 +721,7 @@ public class BarracudaRoutesPanel extends PluginPanel
         if (editPanel != null && editPanel.route != null)
         {
             // If route was removed (new route without name), remove from list
-            if (!routeManager.getAllRoutes().contains(editPanel.route))
+            if (!routeManager.hasRoute(editPanel.route))
             {
                 populateRoutesList();
             }
@@ -512,7 +730,7 @@ public class BarracudaRoutesPanel extends PluginPanel
                 // Repopulate to handle trial changes and name updates
                 populateRoutesList();
                 // Try to restore selection
-                int index = listModel.indexOf(editPanel.route);
+                int index = listModel.indexOf(routeManager.getRouteInfo(editPanel.route));
                 if (index >= 0)
                 {
                     routesList.setSelectedIndex(index);
@@ -0,0 +1,194 @@
+package com.barracudaroutes.ui;
+
+import com.barracudaroutes.BarracudaRoutesConfig;
+import com.barracudaroutes.model.Route;
+import com.barracudaroutes.model.RouteSnapshot;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lap colors shared by the overlay and the edit panel, plus the route line stroke.
+ * Colors are resolved once per route version and config change, and cached per route so the overlay and the
+ * edit panel can show different routes without evicting each other. Lookups of usual lap numbers are plain
+ * array reads, larger lap numbers (which route files don't bound) are resolved on demand and kept in a map.
+ */
+@Singleton
+public class LapColorPalette
+{
+    // Default color scheme for laps (repeating)
+    private static final Color[] DEFAULT_LAP_COLORS = {
+        Color.RED,      // Lap 1
+        Color.BLUE,     // Lap 2
+        Color.GREEN,    // Lap 3
+        Color.WHITE,    // Lap 4
+        Color.BLACK,    // Lap 5
+        new Color(128, 0, 128), // Lap 6 - Purple
+        new Color(255, 165, 0)  // Lap 7 - Orange
+    };
+
+    // Laps up to this number are kept in arrays indexed by lap
+    private static final int MAX_INDEXED_LAP = 64;
+
+    private final BarracudaRoutesConfig config;
+    private final AtomicInteger configGeneration = new AtomicInteger();
+
+    // Replaced as a whole so the overlay and the Swing thread never see a half-built palette
+    private volatile Appearance appearance;
+    // Guarded by itself, routes that are no longer referenced drop out on their own
+    private final Map<Route, Colors> colors = new WeakHashMap<>();
+
+    private static final class Appearance
+    {
+        final int generation;
+        final float lineWidth;
+        final float opacityScale;
+        final BasicStroke lineStroke;
+
+        Appearance(int generation, float lineWidth, float opacityScale)
+        {
+            this.generation = generation;
+            this.lineWidth = lineWidth;
+            this.opacityScale = opacityScale;
+            this.lineStroke = new BasicStroke(lineWidth);
+        }
+    }
+
+    private static final class Colors
+    {
+        final long version;
+        final int generation;
+        final Color[] lapColors; // Indexed by lap number
+        final Color[] strokeColors; // Lap colors with the line opacity applied
+        final Map<Integer, Color> highLapColors = new ConcurrentHashMap<>(); // Laps past MAX_INDEXED_LAP
+        final Map<Integer, Color> highStrokeColors = new ConcurrentHashMap<>();
+
+        Colors(long version, int generation, Color[] lapColors, Color[] strokeColors)
+        {
+            this.version = version;
+            this.generation = generation;
+            this.lapColors = lapColors;
+            this.strokeColors = strokeColors;
+        }
+    }
+
+    @Inject
+    public LapColorPalette(BarracudaRoutesConfig config)
+    {
+        this.config = config;
+    }
+
+    /**
+     * Get the default color for a lap (1-indexed, cycles through the color scheme)
+     */
+    public static Color getDefaultLapColor(int lap)
+    {
+        return DEFAULT_LAP_COLORS[Math.floorMod(lap - 1, DEFAULT_LAP_COLORS.length)];
+    }
+
+    /**
+     * Drop cached colors and strokes, called when the plugin config changes
+     */
+    public void invalidate()
+    {
+        configGeneration.incrementAndGet();
+    }
+
+    /**
+     * Get the color for a lap, custom or default
+     */
+    public Color getLapColor(Route route, RouteSnapshot nodes, int lap)
+    {
+        Colors current = getColors(route, nodes);
+        if (lap > 0 && lap < current.lapColors.length)
+        {
+            return current.lapColors[lap];
+        }
+        return current.highLapColors.computeIfAbsent(lap, l -> resolveLapColor(nodes, l));
+    }
+
+    /**
+     * Get the color for route lines of a lap, with the configured opacity applied
+     */
+    public Color getStrokeColor(Route route, RouteSnapshot nodes, int lap)
+    {
+        Colors current = getColors(route, nodes);
+        if (lap > 0 && lap < current.strokeColors.length)
+        {
+            return current.strokeColors[lap];
+        }
+        float opacityScale = getAppearance().opacityScale;
+        return current.highStrokeColors.computeIfAbsent(lap, l -> applyOpacity(resolveLapColor(nodes, l), opacityScale));
+    }
+
+    public float getLineWidth()
+    {
+        return getAppearance().lineWidth;
+    }
+
+    public BasicStroke getLineStroke()
+    {
+        return getAppearance().lineStroke;
+    }
+
+    private Appearance getAppearance()
+    {
+        Appearance current = appearance;
+        int generation = configGeneration.get();
+        if (current == null || current.generation != generation)
+        {
+            float lineWidth = Math.min(10f, Math.max(1f, config.routeLineWidth()));
+            int lineOpacityPercent = Math.max(0, Math.min(100, config.routeLineOpacity()));
+            current = new Appearance(generation, lineWidth, lineOpacityPercent / 100f);
+            appearance = current;
+        }
+        return current;
+    }
+
+    private Colors getColors(Route route, RouteSnapshot nodes)
+    {
+        Colors current;
+        synchronized (colors)
+        {
+            current = colors.get(route);
+        }
+        Appearance appearance = getAppearance();
+        if (current == null || current.version != nodes.getVersion() || current.generation != appearance.generation)
+        {
+            // Lap numbers are usually small and dense, so index those colors directly by lap
+            int laps = Math.max(1, Math.min(MAX_INDEXED_LAP, nodes.getHighestLap()));
+            Color[] lapColors = new Color[laps + 1];
+            Color[] strokeColors = new Color[laps + 1];
+            for (int lap = 1; lap <= laps; lap++)
+            {
+                lapColors[lap] = resolveLapColor(nodes, lap);
+                strokeColors[lap] = applyOpacity(lapColors[lap], appearance.opacityScale);
+            }
+            current = new Colors(nodes.getVersion(), appearance.generation, lapColors, strokeColors);
+            synchronized (colors)
+            {
+                colors.put(route, current);
+            }
+        }
+        return current;
+    }
+
+    private static Color resolveLapColor(RouteSnapshot nodes, int lap)
+    {
+        // Check for custom color first
+        Color customColor = nodes.getLapColor(lap);
+        return customColor != null ? customColor : getDefaultLapColor(lap);
+    }
+
+    private static Color applyOpacity(Color color, float opacityScale)
+    {
+        int combinedAlpha = Math.round(color.getAlpha() * opacityScale);
+        return new Color(color.getRed(), color.getGreen(), color.getBlue(), combinedAlpha);
+    }
+}
@@ -5,7 +5,7 @@ import com.barracudaroutes.managers.RouteManager;
 import com.barracudaroutes.model.routenodes.LapDividerNode;
 import com.barracudaroutes.model.routenodes.PointNode;
 import com.barracudaroutes.model.Route;
-import com.barracudaroutes.model.routenodes.RouteNode;
+import com.barracudaroutes.model.RouteSnapshot;
 import net.runelite.api.coords.WorldPoint;
 import net.runelite.client.ui.PluginPanel;
 import net.runelite.client.util.ImageUtil;
@@ -19,6 +19,9 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
 
 public class RouteEditPanel extends PluginPanel
 {
@@ -59,15 +62,14 @@ public class RouteEditPanel extends PluginPanel
     private JTextArea descriptionField;
     private JComboBox<String> trialComboBox;
     private JList<Object> tilesList;
-    private DefaultListModel<Object> listModel;
+    private RouteListModel listModel;
     private JButton editButton;
     private JButton deleteButton;
     private JPanel actionButtonsPanel;
     private Integer selectedLap = null;
     
     private boolean recording = false;
-    private Timer recordingTimer;
-    private PointNode lastRecordedPoint = null;
+    private long journaledVersion = -1; // Route version after the last recorded batch was journaled
     private int currentLap = 1;
     
     public RouteEditPanel(BarracudaRoutesPlugin plugin, Route route, boolean isNewRoute, Runnable onBack, Runnable onSave, net.runelite.client.ui.components.colorpicker.ColorPickerManager colorPickerManager, RouteManager routeManager)
@@ -155,10 +157,12 @@ public class RouteEditPanel extends PluginPanel
         headerPanel.add(tilesHeaderPanel);
         
         // Set up tiles list
-        listModel = new DefaultListModel<>();
+        listModel = new RouteListModel(route);
         tilesList = new JList<>(listModel);
         tilesList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         tilesList.setCellRenderer(new TileListCellRenderer());
+        // Every row is one line high, so the list is laid out without measuring each row
+        tilesList.setPrototypeCellValue(new PointNode(99999, 99999, 3));
         tilesList.setDragEnabled(true);
         tilesList.setDropMode(DropMode.INSERT);
         tilesList.setTransferHandler(new TileListTransferHandler());
@@ -267,37 +271,36 @@ public class RouteEditPanel extends PluginPanel
         }
         
         // Initialize currentLap to the highest lap number, or 1 if no lap dividers
-        currentLap = 1;
-        for (RouteNode node : route.getRoute())
-        {
-            if (node instanceof LapDividerNode)
-            {
-                int lapNum = ((LapDividerNode) node).getLapNumber();
-                if (lapNum > currentLap)
-                {
-                    currentLap = lapNum;
-                }
-            }
-        }
+        currentLap = Math.max(1, getHighestLap());
         
         // Populate tiles list - nodes are already in order in the route array
         populateTilesList();
     }
     
+    /**
+     * Bring the tiles list up to date with the route. Only the rows that changed are updated,
+     * and the selection is kept, so the selected tile details are refreshed too.
+     */
     private void populateTilesList()
     {
-        listModel.clear();
-        
-        // Simply add all nodes from the route array in order
-        // Lap dividers are displayed as LapDividerNode objects
-        // Points are displayed as PointNode objects
-        for (RouteNode node : route.getRoute())
+        listModel.sync();
+        updateSelection();
+    }
+    
+    /**
+     * Get the highest lap number used by a lap divider, or 0 if there are none
+     */
+    private int getHighestLap()
+    {
+        int maxLap = 0;
+        for (int i = 0; i < route.getNodeCount(); i++)
         {
-            listModel.addElement(node);
+            if (route.isLapDivider(i))
+            {
+                maxLap = Math.max(maxLap, route.getLapNumber(i));
+            }
         }
-        
-        // Restore selection if possible
-        restoreSelection();
+        return maxLap;
     }
     
     private void updateSelection()
@@ -333,120 +336,217 @@ public class RouteEditPanel extends PluginPanel
         }
     }
     
-    private void restoreSelection()
+    /**
+     * Select the node at the given route index, or clear the selection if it is out of range.
+     * List items are created from the route on demand, so selection is tracked by index.
+     */
+    private void selectNode(int index)
+    {
+        if (index >= 0 && index < listModel.getSize())
+        {
+            tilesList.setSelectedIndex(index);
+            tilesList.ensureIndexIsVisible(index);
+            return;
+        }
+        tilesList.clearSelection();
+    }
+    
+    /**
+     * List model backed by a route snapshot. Syncing compares the shown snapshot with the route's current one
+     * and fires events for the differing range only, so appending a recorded point costs one insert event.
+     * Lap dividers are displayed as LapDividerNode objects, points as PointNode objects.
+     * Row nodes and text are created when a row is first shown and kept for the rows a sync leaves alone,
+     * so painting doesn't allocate.
+     */
+    private static class RouteListModel extends AbstractListModel<Object>
     {
-        // Try to restore selection based on RouteManager or selectedLap
-        PointNode selectedTile = routeManager.getSelectedTile();
-        if (selectedTile != null)
+        private final Route route;
+        private RouteSnapshot shown;
+        private Object[] nodes;
+        private String[] texts;
+        
+        RouteListModel(Route route)
+        {
+            this.route = route;
+            this.shown = route.getSnapshot();
+            this.nodes = new Object[shown.getNodeCount()];
+            this.texts = new String[shown.getNodeCount()];
+        }
+        
+        @Override
+        public int getSize()
+        {
+            return shown.getNodeCount();
+        }
+        
+        @Override
+        public Object getElementAt(int index)
         {
-            for (int i = 0; i < listModel.size(); i++)
+            if (nodes[index] == null)
             {
-                Object element = listModel.get(i);
-                if (element == selectedTile)
-                {
-                    tilesList.setSelectedIndex(i);
-                    return;
-                }
+                nodes[index] = shown.getNode(index);
             }
+            return nodes[index];
         }
-        else if (selectedLap != null)
+        
+        /**
+         * Get the text of a row
+         */
+        String getText(int index)
         {
-            for (int i = 0; i < listModel.size(); i++)
+            if (texts[index] == null)
             {
-                Object element = listModel.get(i);
-                if (element instanceof Integer && element.equals(selectedLap))
-                {
-                    tilesList.setSelectedIndex(i);
-                    return;
-                }
+                texts[index] = getText(getElementAt(index));
             }
+            return texts[index];
+        }
+        
+        static String getText(Object node)
+        {
+            if (node instanceof LapDividerNode)
+            {
+                return "Lap " + ((LapDividerNode) node).getLapNumber();
+            }
+            if (node instanceof PointNode)
+            {
+                PointNode point = (PointNode) node;
+                return "(" + point.getX() + ", " + point.getY() + ", " + point.getPlane() + ")";
+            }
+            return String.valueOf(node);
+        }
+        
+        void sync()
+        {
+            RouteSnapshot previous = shown;
+            RouteSnapshot current = route.getSnapshot();
+            if (current.getVersion() == previous.getVersion())
+            {
+                return;
+            }
+            
+            // Rows outside the differing middle section are left alone
+            int oldSize = previous.getNodeCount();
+            int newSize = current.getNodeCount();
+            int prefix = 0;
+            while (prefix < oldSize && prefix < newSize && sameNode(previous, prefix, current, prefix))
+            {
+                prefix++;
+            }
+            int suffix = 0;
+            while (suffix < oldSize - prefix && suffix < newSize - prefix
+                && sameNode(previous, oldSize - 1 - suffix, current, newSize - 1 - suffix))
+            {
+                suffix++;
+            }
+            
+            shown = current;
+            nodes = keepRows(nodes, newSize, prefix, suffix);
+            texts = keepRows(texts, newSize, prefix, suffix);
+            int oldEnd = oldSize - suffix;
+            int newEnd = newSize - suffix;
+            int changed = Math.min(oldEnd, newEnd) - prefix;
+            if (oldEnd > newEnd)
+            {
+                fireIntervalRemoved(this, prefix + changed, oldEnd - 1);
+            }
+            else if (newEnd > oldEnd)
+            {
+                fireIntervalAdded(this, prefix + changed, newEnd - 1);
+            }
+            if (changed > 0)
+            {
+                fireContentsChanged(this, prefix, prefix + changed - 1);
+            }
+        }
+        
+        /**
+         * Copy the cached rows before and after the differing section into an array for the new size
+         */
+        private static <T> T[] keepRows(T[] rows, int newSize, int prefix, int suffix)
+        {
+            T[] kept = Arrays.copyOf(rows, newSize);
+            Arrays.fill(kept, prefix, newSize - suffix, null);
+            System.arraycopy(rows, rows.length - suffix, kept, newSize - suffix, suffix);
+            return kept;
+        }
+        
+        private static boolean sameNode(RouteSnapshot a, int i, RouteSnapshot b, int j)
+        {
+            if (a.isLapDivider(i) != b.isLapDivider(j))
+            {
+                return false;
+            }
+            if (a.isLapDivider(i))
+            {
+                int lap = a.getLapNumber(i);
+                return lap == b.getLapNumber(j) && Objects.equals(a.getLapColor(lap), b.getLapColor(lap));
+            }
+            return a.getX(i) == b.getX(j) && a.getY(i) == b.getY(j) && a.getPlane(i) == b.getPlane(j);
         }
-        tilesList.clearSelection();
     }
     
-    // Custom cell renderer for the list
+    // Custom cell renderer for the list. The same components are reused for every row,
+    // with the text cached by the list model.
     private class TileListCellRenderer extends DefaultListCellRenderer
     {
-        // Default color scheme for laps (repeating) - same as RouteOverlay
-        private final Color[] DEFAULT_LAP_COLORS = {
-            Color.RED,      // Lap 1
-            Color.BLUE,     // Lap 2
-            Color.GREEN,   // Lap 3
-            Color.WHITE,   // Lap 4
-            Color.BLACK,   // Lap 5
-            new Color(128, 0, 128), // Lap 6 - Purple
-            new Color(255, 165, 0)  // Lap 7 - Orange
-        };
-        
-        private Color getLapColor(int lap)
+        private final JPanel lapPanel = new JPanel(new BorderLayout());
+        private final JLabel lapLabel = new JLabel();
+        private final JPanel colorIndicator = new JPanel();
+        private Font baseFont;
+        private Font plainFont;
+        private Font boldFont;
+        
+        TileListCellRenderer()
         {
-            // Check for custom color first
-            Color customColor = route.getLapColor(lap);
-            if (customColor != null)
-            {
-                return customColor;
-            }
-            
-            // Use default color scheme (1-indexed, cycles through)
-            int colorIndex = (lap - 1) % DEFAULT_LAP_COLORS.length;
-            return DEFAULT_LAP_COLORS[colorIndex];
+            // Lap divider - a label with a color indicator
+            lapLabel.setBorder(new EmptyBorder(0, 0, 0, 8)); // Add spacing between text and color line
+            colorIndicator.setPreferredSize(new Dimension(50, 5));
+            colorIndicator.setMinimumSize(new Dimension(50, 5));
+            colorIndicator.setMaximumSize(new Dimension(50, 5));
+            colorIndicator.setOpaque(true);
+            lapPanel.setOpaque(true);
+            lapPanel.add(lapLabel, BorderLayout.WEST);
+            lapPanel.add(colorIndicator, BorderLayout.CENTER);
         }
         
         @Override
         public Component getListCellRendererComponent(JList<?> list, Object value, int index,
                                                       boolean isSelected, boolean cellHasFocus)
         {
+            if (list.getFont() != baseFont)
+            {
+                baseFont = list.getFont();
+                plainFont = baseFont.deriveFont(Font.PLAIN);
+                boldFont = baseFont.deriveFont(Font.BOLD);
+            }
+            // The prototype row isn't in the model
+            String text = index >= 0 && index < listModel.getSize() ? listModel.getText(index) : RouteListModel.getText(value);
+            
             if (value instanceof LapDividerNode)
             {
-                // Lap divider - create a panel with label and color indicator
-                LapDividerNode lapDivider = (LapDividerNode) value;
-                int lap = lapDivider.getLapNumber();
-                JPanel panel = new JPanel(new BorderLayout());
-                panel.setOpaque(true);
-                
-                // Get the base label for styling
-                JLabel label = (JLabel) super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
-                label.setText("Lap " + lap);
-                label.setFont(label.getFont().deriveFont(Font.BOLD));
-                label.setBorder(new EmptyBorder(0, 0, 0, 8)); // Add spacing between text and color line
-                
-                // Create colored line indicator
-                JPanel colorIndicator = new JPanel();
-                colorIndicator.setPreferredSize(new Dimension(50, 5));
-                colorIndicator.setMinimumSize(new Dimension(50, 5));
-                colorIndicator.setMaximumSize(new Dimension(50, 5));
-                colorIndicator.setOpaque(true);
-                colorIndicator.setBackground(getLapColor(lap));
+                int lap = ((LapDividerNode) value).getLapNumber();
+                lapLabel.setText(text);
+                lapLabel.setFont(boldFont);
+                colorIndicator.setBackground(plugin.getLapColorPalette().getLapColor(route, route.getSnapshot(), lap));
                 
                 // Set panel background based on selection
                 if (isSelected)
                 {
-                    panel.setBackground(list.getSelectionBackground());
-                    label.setForeground(list.getSelectionForeground());
+                    lapPanel.setBackground(list.getSelectionBackground());
+                    lapLabel.setForeground(list.getSelectionForeground());
                 }
                 else
                 {
-                    panel.setBackground(list.getBackground());
-                    label.setForeground(list.getForeground());
+                    lapPanel.setBackground(list.getBackground());
+                    lapLabel.setForeground(list.getForeground());
                 }
-                
-                panel.add(label, BorderLayout.WEST);
-                panel.add(colorIndicator, BorderLayout.CENTER);
-                
-                return panel;
-            }
-            else if (value instanceof PointNode)
-            {
-                // Tile - use default renderer
-                JLabel label = (JLabel) super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
-                PointNode point = (PointNode) value;
-                label.setText("(" + point.getX() + ", " + point.getY() + ", " + point.getPlane() + ")");
-                label.setFont(label.getFont().deriveFont(Font.PLAIN));
-                return label;
+                return lapPanel;
             }
             
-            // Fallback
-            return super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            // Tile - use default renderer
+            JLabel label = (JLabel) super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            label.setFont(plainFont);
+            return label;
         }
     }
     
@@ -455,7 +555,7 @@ public class RouteEditPanel extends PluginPanel
         Object selected = tilesList.getSelectedValue();
         if (selected instanceof PointNode)
         {
-            onEditTile((PointNode) selected);
+            onEditTile(tilesList.getSelectedIndex());
         }
         else if (selected instanceof LapDividerNode)
         {
@@ -469,7 +569,7 @@ public class RouteEditPanel extends PluginPanel
         Object selected = tilesList.getSelectedValue();
         if (selected instanceof PointNode)
         {
-            onDeleteTile((PointNode) selected);
+            onDeleteTile(tilesList.getSelectedIndex());
         }
         else if (selected instanceof LapDividerNode)
         {
@@ -522,51 +622,53 @@ public class RouteEditPanel extends PluginPanel
         }
         
         // Clear existing route and reset to lap 1
-        route.getRoute().clear();
+        route.clear();
         currentLap = 1;
         // Add initial lap divider for lap 1
         route.addNode(new LapDividerNode(1));
         populateTilesList();
         
+        // Recorded points are appended to a journal instead of rewriting the route file
+        routeManager.startJournal(route);
+        journaledVersion = route.getVersion();
+        
         recording = true;
-        lastRecordedPoint = null;
         updateButtons();
         
         // Show stop button, hide record button
         recordButton.setVisible(false);
         stopRecordButton.setVisible(true);
         
-        // Start timer to record player position periodically
-        recordingTimer = new Timer(100, e -> {
-            if (!recording || route == null)
-            {
-                return;
-            }
-            if (plugin.getClient().getLocalPlayer() == null)
-            {
-                return;
-            }
-            int x = plugin.getClient().getLocalPlayer().getWorldLocation().getX();
-            int y = plugin.getClient().getLocalPlayer().getWorldLocation().getY();
-            int plane = plugin.getClient().getPlane();
-            PointNode newPoint = new PointNode(x, y, plane);
-            
-            // Only add if player moved (avoid duplicate points)
-            if (lastRecordedPoint == null || 
-                lastRecordedPoint.getX() != x || 
-                lastRecordedPoint.getY() != y || 
-                lastRecordedPoint.getPlane() != plane)
-            {
-                // Ensure current lap divider exists
-                ensureLapDividerExists(currentLap);
-                route.addNode(newPoint);
-                lastRecordedPoint = newPoint;
-                routeManager.updateRoute(route);
-                // Update tiles list
-                populateTilesList();
-            }
-        });
-        recordingTimer.start();
+        // The recorder samples the player position on the client thread every game tick
+        plugin.getRouteRecorder().start(this::onRecordedPoints);
+    }
+    
+    /**
+     * Append a batch of recorded points, called on the Swing thread
+     */
+    private void onRecordedPoints(List<WorldPoint> points)
+    {
+        if (!recording || route == null)
+        {
+            return;
+        }
+        
+        // Ensure current lap divider exists
+        ensureLapDividerExists(currentLap);
+        if (route.getVersion() != journaledVersion)
+        {
+            // The route was changed by something other than recording, which the journal can't hold
+            routeManager.checkpointJournal(route);
+        }
+        int fromIndex = route.getNodeCount();
+        for (WorldPoint point : points)
+        {
+            route.addNode(new PointNode(point.getX(), point.getY(), point.getPlane()));
+        }
+        routeManager.appendToJournal(route, fromIndex);
+        journaledVersion = route.getVersion();
+        // Update tiles list
+        populateTilesList();
     }
     
     /**
@@ -575,23 +677,21 @@ public class RouteEditPanel extends PluginPanel
      */
     private void ensureLapDividerExists(int lap)
     {
-        java.util.List<RouteNode> routeNodes = route.getRoute();
         boolean hasLapDivider = false;
         int insertIndex = 0;
         
         // Find if lap divider exists and where to insert if it doesn't
-        for (int i = 0; i < routeNodes.size(); i++)
+        for (int i = 0; i < route.getNodeCount(); i++)
         {
-            RouteNode node = routeNodes.get(i);
-            if (node instanceof LapDividerNode)
+            if (route.isLapDivider(i))
             {
-                LapDividerNode lapDivider = (LapDividerNode) node;
-                if (lapDivider.getLapNumber() == lap)
+                int lapNumber = route.getLapNumber(i);
+                if (lapNumber == lap)
                 {
                     hasLapDivider = true;
                     break;
                 }
-                if (lapDivider.getLapNumber() < lap)
+                if (lapNumber < lap)
                 {
                     insertIndex = i + 1;
                 }
@@ -600,7 +700,7 @@ public class RouteEditPanel extends PluginPanel
         
         if (!hasLapDivider)
         {
-            routeNodes.add(insertIndex, new LapDividerNode(lap));
+            route.insertNode(insertIndex, new LapDividerNode(lap));
         }
     }
     
@@ -610,12 +710,11 @@ public class RouteEditPanel extends PluginPanel
         {
             return;
         }
+        // Stopping delivers any points still queued, so it must happen before recording is cleared
+        plugin.getRouteRecorder().stop();
         recording = false;
-        if (recordingTimer != null)
-        {
-            recordingTimer.stop();
-            recordingTimer = null;
-        }
+        // Compact the journal into the route file
+        routeManager.stopJournal(route);
         updateButtons();
         
         // Show record button, hide stop button
@@ -651,28 +750,16 @@ public class RouteEditPanel extends PluginPanel
             ensureLapDividerExists(currentLap);
             PointNode newPoint = new PointNode(worldPoint.getX(), worldPoint.getY(), worldPoint.getPlane());
             route.addNode(newPoint);
-            routeManager.setSelectedTile(newPoint);
             routeManager.updateRoute(route);
             populateTilesList();
+            selectNode(route.getNodeCount() - 1);
         });
     }
     
     private void onNewLap()
     {
         // Find the highest lap number
-        int maxLap = 1;
-        for (RouteNode node : route.getRoute())
-        {
-            if (node instanceof LapDividerNode)
-            {
-                int lapNum = ((LapDividerNode) node).getLapNumber();
-                if (lapNum > maxLap)
-                {
-                    maxLap = lapNum;
-                }
-            }
-        }
-        currentLap = maxLap + 1;
+        currentLap = Math.max(1, getHighestLap()) + 1;
         // Add new lap divider at the end
         route.addNode(new LapDividerNode(currentLap));
         routeManager.updateRoute(route);
@@ -695,36 +782,12 @@ public class RouteEditPanel extends PluginPanel
             return;
         }
         
-        // Find and remove the lap divider and all point nodes until the next lap divider
-        java.util.List<RouteNode> routeNodes = route.getRoute();
-        java.util.List<RouteNode> toRemove = new java.util.ArrayList<>();
-        boolean foundLapDivider = false;
-        
-        for (int i = 0; i < routeNodes.size(); i++)
+        // Remove the lap divider and all point nodes until the next lap divider
+        int lapStart = route.getLapDividerIndex(lap);
+        if (lapStart >= 0)
         {
-            RouteNode node = routeNodes.get(i);
-            if (node instanceof LapDividerNode)
-            {
-                LapDividerNode lapDivider = (LapDividerNode) node;
-                if (lapDivider.getLapNumber() == lap)
-                {
-                    foundLapDivider = true;
-                    toRemove.add(node);
-                }
-                else if (foundLapDivider)
-                {
-                    // Reached next lap divider, stop removing
-                    break;
-                }
-            }
-            else if (foundLapDivider && node instanceof PointNode)
-            {
-                // Remove all point nodes after the lap divider until next lap divider
-                toRemove.add(node);
-            }
+            route.removeNodes(lapStart, route.getNextLapDividerIndex(lapStart));
         }
-        
-        routeNodes.removeAll(toRemove);
         routeManager.setSelectedTile(null);
         selectedLap = null;
         
@@ -738,9 +801,9 @@ public class RouteEditPanel extends PluginPanel
         populateTilesList();
     }
     
-    private void onDeleteTile(PointNode point)
+    private void onDeleteTile(int index)
     {
-        if (point == null)
+        if (index < 0 || index >= route.getNodeCount() || !route.isPoint(index))
         {
             return;
         }
@@ -759,16 +822,16 @@ public class RouteEditPanel extends PluginPanel
             return;
         }
         
-        route.getRoute().remove(point);
+        route.removeNode(index);
         routeManager.setSelectedTile(null);
         selectedLap = null;
         routeManager.updateRoute(route);
         populateTilesList();
     }
     
-    private void onEditTile(PointNode point)
+    private void onEditTile(int index)
     {
-        if (point == null)
+        if (index < 0 || index >= route.getNodeCount() || !route.isPoint(index))
         {
             return;
         }
@@ -791,7 +854,7 @@ public class RouteEditPanel extends PluginPanel
         gbc.fill = GridBagConstraints.HORIZONTAL;
         gbc.weightx = 1.0;
         JTextField xField = new JTextField(10);
-        xField.setText(String.valueOf(point.getX()));
+        xField.setText(String.valueOf(route.getX(index)));
         dialog.add(xField, gbc);
         
         // Y field
@@ -804,7 +867,7 @@ public class RouteEditPanel extends PluginPanel
         gbc.fill = GridBagConstraints.HORIZONTAL;
         gbc.weightx = 1.0;
         JTextField yField = new JTextField(10);
-        yField.setText(String.valueOf(point.getY()));
+        yField.setText(String.valueOf(route.getY(index)));
         dialog.add(yField, gbc);
         
         // Plane field
@@ -817,7 +880,7 @@ public class RouteEditPanel extends PluginPanel
         gbc.fill = GridBagConstraints.HORIZONTAL;
         gbc.weightx = 1.0;
         JTextField planeField = new JTextField(10);
-        planeField.setText(String.valueOf(point.getPlane()));
+        planeField.setText(String.valueOf(route.getPlane(index)));
         dialog.add(planeField, gbc);
         
         // Buttons
@@ -843,19 +906,11 @@ public class RouteEditPanel extends PluginPanel
                 int y = Integer.parseInt(yField.getText().trim());
                 int plane = Integer.parseInt(planeField.getText().trim());
                 
-                point.setX(x);
-                point.setY(y);
-                point.setPlane(plane);
+                route.setPoint(index, x, y, plane);
                 
-                // Update the list display
+                // Update the list display and keep the edited tile selected
                 populateTilesList();
-                
-                // Update selected tile if it's the one being edited
-                if (routeManager.getSelectedTile() == point)
-                {
-                    routeManager.setSelectedTile(point);
-                    restoreSelection();
-                }
+                selectNode(index);
                 
                 routeManager.updateRoute(route);
                 dialog.dispose();
@@ -876,22 +931,7 @@ public class RouteEditPanel extends PluginPanel
     private void onEditLap(int lap)
     {
         // Get current color (custom or default)
-        Color currentColor = route.getLapColor(lap);
-        if (currentColor == null)
-        {
-            // Use default color for this lap
-            Color[] defaultColors = {
-                Color.RED,      // Lap 1
-                Color.BLUE,     // Lap 2
-                Color.GREEN,    // Lap 3
-                Color.WHITE,    // Lap 4
-                Color.BLACK,    // Lap 5
-                new Color(128, 0, 128), // Lap 6 - Purple
-                new Color(255, 165, 0)  // Lap 7 - Orange
-            };
-            int colorIndex = (lap - 1) % defaultColors.length;
-            currentColor = defaultColors[colorIndex];
-        }
+        Color currentColor = plugin.getLapColorPalette().getLapColor(route, route.getSnapshot(), lap);
         
         // Use RuneLite's color picker
         Window parentWindow = SwingUtilities.getWindowAncestor(this);
@@ -989,27 +1029,17 @@ public class RouteEditPanel extends PluginPanel
                     dropIndex--;
                 }
                 
-                java.util.List<RouteNode> routeNodes = route.getRoute();
-                
-                // Remove from source position
-                RouteNode draggedNode = routeNodes.remove(sourceIndex);
-                
-                // Insert at drop location
-                routeNodes.add(dropIndex, draggedNode);
-                
+                // Move from source position to drop location
                 // If dragging a lap divider, we might need to update lap numbers
                 // For now, just move it - the structure handles lap assignment by position
+                route.moveNode(sourceIndex, dropIndex);
                 
                 routeManager.updateRoute(route);
                 // Refresh the list
                 populateTilesList();
                 
                 // Update selection
-                if (draggedNode instanceof PointNode)
-                {
-                    routeManager.setSelectedTile((PointNode) draggedNode);
-                }
-                restoreSelection();
+                selectNode(dropIndex);
                 
                 return true;
             }
@@ -1128,12 +1158,15 @@ public class RouteEditPanel extends PluginPanel
     
     public void cleanup()
     {
-        if (recording && recordingTimer != null)
+        if (recording)
         {
-            recordingTimer.stop();
-            recordingTimer = null;
+            plugin.getRouteRecorder().stop();
+            recording = false;
+            routeManager.stopJournal(route);
         }
         plugin.clearManualTileSelectionConsumer();
+        // Write this route's pending changes now instead of waiting for the edit pause
+        routeManager.flush();
         // Clear selected tile when leaving edit panel
         routeManager.setSelectedTile(null);
         selectedLap = null;
@@ -5,24 +5,23 @@ import javax.inject.Inject;
 import com.barracudaroutes.BarracudaRoutesConfig;
 import com.barracudaroutes.managers.RouteManager;
 import com.barracudaroutes.managers.RouteVisibilityManager;
-import com.barracudaroutes.model.routenodes.LapDividerNode;
 import com.barracudaroutes.model.routenodes.PointNode;
 import com.barracudaroutes.model.Route;
-import com.barracudaroutes.model.routenodes.RouteNode;
+import com.barracudaroutes.model.RouteSnapshot;
 import net.runelite.api.Point;
 import net.runelite.client.ui.overlay.Overlay;
 import net.runelite.client.ui.overlay.OverlayLayer;
 import net.runelite.client.ui.overlay.OverlayPosition;
 import net.runelite.api.Client;
-import net.runelite.api.coords.WorldPoint;
 import net.runelite.api.coords.LocalPoint;
 import net.runelite.api.Perspective;
 
 import java.awt.*;
 import java.awt.geom.Path2D;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Set;
 
 public class RouteOverlay extends Overlay
 {
@@ -30,43 +29,54 @@ public class RouteOverlay extends Overlay
     private final RouteVisibilityManager visibilityManager;
     private final RouteManager routeManager;
     private final BarracudaRoutesConfig config;
+    private final LapColorPalette palette;
+
+    private static final Color SELECTED_TILE_FILL = new Color(255, 255, 0, 100); // Yellow with transparency
+    private static final Color SELECTED_TILE_BORDER = new Color(255, 255, 0, 255); // Solid yellow
+    private static final Stroke SELECTED_TILE_STROKE = new BasicStroke(2.0f);
+
+    private static final int OFF_CANVAS = Integer.MIN_VALUE;
+
+    // Projection cache: canvas positions per node index, reused until the camera, viewport, scene base,
+    // plane or route version changes. Points are only projected once they become visible.
+    private final int[] projectionKey = new int[13];
+    private long projectedVersion = -1;
+    private int projectionEpoch = 0;
+    private int[] canvasXs = new int[0];
+    private int[] canvasYs = new int[0];
+    private int[] projectedEpochs = new int[0];
+    private int[] tileHeights = new int[0];
+
+    // Curved line geometry: Catmull-Rom control points from each point to the next, in world tile coordinates,
+    // four values per point ordinal. Built once per route version and projected through the same cache as the points.
+    private static final double CURVE_TENSION = 0.85; // 0 -> straight lines, 1 -> stronger curves
+    private long splineVersion = -1;
+    private double[] splineControls = new double[0];
+    private int[] controlCanvas = new int[0];
+    private int[] controlEpochs = new int[0];
+
+    // Projected points of the current frame in route order, segmentColors[i] colors the segment from i to i + 1
+    private int[] pathXs = new int[0];
+    private int[] pathYs = new int[0];
+    private int[] pathOrdinals = new int[0];
+    private Color[] segmentColors = new Color[0];
+
+    // Reused every frame so each color is stroked with a single draw call
+    private final PathBatches lineBatches = new PathBatches();
+    private final PathBatches arrowBatches = new PathBatches();
 
     @Inject
-    public RouteOverlay(Client client, RouteVisibilityManager visibilityManager, RouteManager routeManager, BarracudaRoutesConfig config)
+    public RouteOverlay(Client client, RouteVisibilityManager visibilityManager, RouteManager routeManager, BarracudaRoutesConfig config, LapColorPalette palette)
     {
         this.client = client;
         this.visibilityManager = visibilityManager;
         this.routeManager = routeManager;
         this.config = config;
+        this.palette = palette;
         setPosition(OverlayPosition.DYNAMIC);
         setLayer(OverlayLayer.ABOVE_SCENE);
     }
 
-    // Default color scheme for laps (repeating)
-    private static final Color[] DEFAULT_LAP_COLORS = {
-        Color.RED,      // Lap 1
-        Color.BLUE,     // Lap 2
-        Color.GREEN,    // Lap 3
-        Color.WHITE,    // Lap 4
-        Color.BLACK,    // Lap 5
-        new Color(128, 0, 128), // Lap 6 - Purple
-        new Color(255, 165, 0)  // Lap 7 - Orange
-    };
-    
-    private Color getLapColor(Route route, int lap)
-    {
-        // Check for custom color first
-        Color customColor = route.getLapColor(lap);
-        if (customColor != null)
-        {
-            return customColor;
-        }
-        
-        // Use default color scheme (1-indexed, cycles through)
-        int colorIndex = (lap - 1) % DEFAULT_LAP_COLORS.length;
-        return DEFAULT_LAP_COLORS[colorIndex];
-    }
-
     @Override
     public Dimension render(Graphics2D g)
     {
@@ -75,98 +85,85 @@ public class RouteOverlay extends Overlay
         {
             return null;
         }
-        List<RouteNode> routeNodes = active.getRoute();
-        if (routeNodes.isEmpty())
+        // Read from one snapshot so edits made on the Swing thread can't change the nodes mid-frame
+        RouteSnapshot nodes = active.getSnapshot();
+        int nodeCount = nodes.getNodeCount();
+        if (nodeCount == 0)
         {
             return null;
         }
         
         // Get visible tile indices from visibility manager
-        Set<Integer> visibleIndices = visibilityManager.getVisibleTileIndices();
-        List<Point> visiblePoints = new ArrayList<>();
-        List<Color> segmentColors = new ArrayList<>();
+        BitSet visibleTiles = visibilityManager.getVisibleTiles();
+        boolean useCurves = config.useCurvedRouteLines();
+        validateProjections(nodes);
+        if (useCurves)
+        {
+            validateSplines(nodes);
+        }
+        ensurePathCapacity(nodeCount);
+        int pathLength = 0;
 
         Stroke originalStroke = g.getStroke();
-        float lineWidth = Math.min(10f, Math.max(1f, config.routeLineWidth()));
-        g.setStroke(new BasicStroke(lineWidth));
-        int lineOpacityPercent = Math.max(0, Math.min(100, config.routeLineOpacity()));
-        float opacityScale = lineOpacityPercent / 100f;
-        Point prev = null;
-        int currentLap = 1;
+        float lineWidth = palette.getLineWidth();
+        g.setStroke(palette.getLineStroke());
+        boolean connected = false;
+        Color lapColor = palette.getStrokeColor(active, nodes, 1);
+        int ordinal = -1;
         
-        for (int i = 0; i < routeNodes.size(); i++)
+        for (int i = 0; i < nodeCount; i++)
         {
-            RouteNode node = routeNodes.get(i);
-            
-            if (node instanceof LapDividerNode)
+            if (nodes.isLapDivider(i))
             {
                 // Update current lap but keep previous point so laps remain connected
-                currentLap = ((LapDividerNode) node).getLapNumber();
+                lapColor = palette.getStrokeColor(active, nodes, nodes.getLapNumber(i));
                 continue;
             }
-            else if (node instanceof PointNode)
+            else
             {
-                // Skip if tile is not visible
-                if (!visibleIndices.contains(i))
-                {
-                    prev = null; // Break the line when skipping tiles
-                    continue;
-                }
-                
-                PointNode point = (PointNode) node;
-                WorldPoint wp = new WorldPoint(point.getX(), point.getY(), point.getPlane());
-                LocalPoint lp = LocalPoint.fromWorld(client, wp.getX(), wp.getY());
-                if (lp == null)
-                {
-                    prev = null;
-                    continue;
-                }
-                net.runelite.api.Point canvas = Perspective.localToCanvas(client, lp, client.getPlane());
-                if (canvas == null)
+                ordinal++;
+
+                // Skip if tile is not visible, breaking the line
+                if (!visibleTiles.get(i) || !project(nodes, i))
                 {
-                    prev = null;
+                    connected = false;
                     continue;
                 }
 
-                visiblePoints.add(canvas);
-                segmentColors.add(null);
-                int currentIndex = visiblePoints.size() - 1;
+                pathXs[pathLength] = canvasXs[i];
+                pathYs[pathLength] = canvasYs[i];
+                pathOrdinals[pathLength] = ordinal;
+                segmentColors[pathLength] = null;
                 
                 // Set color for this point's lap (used for the line segment from prev to this point)
-                Color lapColor = getLapColor(active, currentLap);
-                int combinedAlpha = Math.round(lapColor.getAlpha() * opacityScale);
-                Color lineColor = new Color(lapColor.getRed(), lapColor.getGreen(), lapColor.getBlue(), combinedAlpha);
-                g.setColor(lineColor);
-                
-                if (prev != null)
+                if (connected)
                 {
-                    if (currentIndex > 0)
-                    {
-                        segmentColors.set(currentIndex - 1, lineColor);
-                    }
+                    segmentColors[pathLength - 1] = lapColor;
                 }
-                prev = canvas;
+                pathLength++;
+                connected = true;
             }
         }
 
-        drawRouteSegments(g, visiblePoints, segmentColors);
+        drawRouteSegments(g, nodes, pathLength, useCurves);
 
         if (config.showRouteDirectionArrows())
         {
             Color previousColor = g.getColor();
-            for (int i = 0; i < visiblePoints.size() - 1; i++)
+            arrowBatches.reset();
+            for (int i = 0; i < pathLength - 1; i++)
             {
                 if ((i % 2) == 0)
                 {
-                    Color arrowColor = segmentColors.get(i);
+                    Color arrowColor = segmentColors[i];
                     if (arrowColor == null)
                     {
                         continue;
                     }
-                    g.setColor(arrowColor);
-                    drawDirectionArrow(g, visiblePoints.get(i), visiblePoints.get(i + 1), lineWidth);
+                    addDirectionArrow(arrowBatches.get(arrowColor).path, pathXs[i], pathYs[i], pathXs[i + 1], pathYs[i + 1], lineWidth);
                 }
             }
+            arrowBatches.draw(g);
             g.setColor(previousColor);
         }
         
@@ -174,8 +171,7 @@ public class RouteOverlay extends Overlay
         PointNode selectedTile = routeManager.getSelectedTile();
         if (selectedTile != null)
         {
-            WorldPoint wp = new WorldPoint(selectedTile.getX(), selectedTile.getY(), selectedTile.getPlane());
-            LocalPoint lp = LocalPoint.fromWorld(client, wp.getX(), wp.getY());
+            LocalPoint lp = LocalPoint.fromWorld(client, selectedTile.getX(), selectedTile.getY());
             if (lp != null)
             {
                 // Get the polygon representing the entire tile
@@ -183,12 +179,12 @@ public class RouteOverlay extends Overlay
                 if (tilePoly != null)
                 {
                     // Draw filled tile highlight
-                    g.setColor(new Color(255, 255, 0, 100)); // Yellow with transparency
+                    g.setColor(SELECTED_TILE_FILL);
                     g.fillPolygon(tilePoly);
                     
                     // Draw tile border
-                    g.setColor(new Color(255, 255, 0, 255)); // Solid yellow
-                    g.setStroke(new BasicStroke(2.0f));
+                    g.setColor(SELECTED_TILE_BORDER);
+                    g.setStroke(SELECTED_TILE_STROKE);
                     g.drawPolygon(tilePoly);
                 }
             }
@@ -197,74 +193,225 @@ public class RouteOverlay extends Overlay
         return null;
     }
 
-    private void drawRouteSegments(Graphics2D g, List<Point> points, List<Color> segmentColors)
+    /**
+     * Invalidate cached canvas positions if the camera, viewport, scene or route changed since the last frame
+     */
+    private void validateProjections(RouteSnapshot nodes)
     {
-        if (points.size() < 2)
+        boolean changed = nodes.getVersion() != projectedVersion;
+        changed |= updateKey(0, client.getCameraX());
+        changed |= updateKey(1, client.getCameraY());
+        changed |= updateKey(2, client.getCameraZ());
+        changed |= updateKey(3, client.getCameraYaw());
+        changed |= updateKey(4, client.getCameraPitch());
+        changed |= updateKey(5, client.getScale());
+        changed |= updateKey(6, client.getViewportWidth());
+        changed |= updateKey(7, client.getViewportHeight());
+        changed |= updateKey(8, client.getViewportXOffset());
+        changed |= updateKey(9, client.getViewportYOffset());
+        changed |= updateKey(10, client.getBaseX());
+        changed |= updateKey(11, client.getBaseY());
+        changed |= updateKey(12, client.getPlane());
+        if (!changed)
         {
             return;
         }
-        boolean useCurves = config.useCurvedRouteLines();
-        for (int i = 1; i < points.size(); i++)
+
+        projectedVersion = nodes.getVersion();
+        if (canvasXs.length < nodes.getNodeCount())
+        {
+            int capacity = Math.max(nodes.getNodeCount(), canvasXs.length * 2);
+            canvasXs = new int[capacity];
+            canvasYs = new int[capacity];
+            projectedEpochs = new int[capacity];
+            tileHeights = new int[capacity];
+            projectionEpoch = 0;
+        }
+        // Bumping the epoch marks every cached position dirty without touching the arrays
+        if (++projectionEpoch == Integer.MAX_VALUE)
+        {
+            Arrays.fill(projectedEpochs, 0);
+            Arrays.fill(controlEpochs, 0);
+            projectionEpoch = 1;
+        }
+    }
+
+    private boolean updateKey(int slot, int value)
+    {
+        if (projectionKey[slot] == value)
+        {
+            return false;
+        }
+        projectionKey[slot] = value;
+        return true;
+    }
+
+    /**
+     * Project the point at the given index to the canvas unless it is already cached for this camera
+     *
+     * @return whether the point is on the canvas
+     */
+    private boolean project(RouteSnapshot nodes, int index)
+    {
+        if (projectedEpochs[index] != projectionEpoch)
+        {
+            projectedEpochs[index] = projectionEpoch;
+            canvasXs[index] = OFF_CANVAS;
+            LocalPoint lp = LocalPoint.fromWorld(client, nodes.getX(index), nodes.getY(index));
+            if (lp != null)
+            {
+                int height = Perspective.getTileHeight(client, lp, client.getPlane());
+                tileHeights[index] = height;
+                Point canvas = Perspective.localToCanvas(client, lp.getX(), lp.getY(), height);
+                if (canvas != null)
+                {
+                    canvasXs[index] = canvas.getX();
+                    canvasYs[index] = canvas.getY();
+                }
+            }
+        }
+        return canvasXs[index] != OFF_CANVAS;
+    }
+
+    private void ensurePathCapacity(int capacity)
+    {
+        if (pathXs.length < capacity)
+        {
+            pathXs = new int[capacity];
+            pathYs = new int[capacity];
+            pathOrdinals = new int[capacity];
+            segmentColors = new Color[capacity];
+        }
+    }
+
+    /**
+     * Rebuild the curve control points if the route changed since they were computed
+     */
+    private void validateSplines(RouteSnapshot nodes)
+    {
+        if (nodes.getVersion() == splineVersion)
         {
-            Color color = segmentColors.get(i - 1);
+            return;
+        }
+        splineVersion = nodes.getVersion();
+
+        int pointCount = nodes.getPointCount();
+        if (controlEpochs.length < pointCount)
+        {
+            int capacity = Math.max(pointCount, controlEpochs.length * 2);
+            splineControls = new double[capacity * 4];
+            controlCanvas = new int[capacity * 4];
+            controlEpochs = new int[capacity];
+        }
+        else
+        {
+            // Ordinals may now refer to different points, stale projections must not match the current epoch
+            Arrays.fill(controlEpochs, 0);
+        }
+
+        for (int ordinal = 0; ordinal + 1 < pointCount; ordinal++)
+        {
+            // The ends of the route use their own point as the missing neighbour
+            int p0 = nodes.getPointNodeIndex(Math.max(0, ordinal - 1));
+            int p1 = nodes.getPointNodeIndex(ordinal);
+            int p2 = nodes.getPointNodeIndex(ordinal + 1);
+            int p3 = nodes.getPointNodeIndex(Math.min(pointCount - 1, ordinal + 2));
+
+            int offset = ordinal * 4;
+            splineControls[offset] = nodes.getX(p1) + (nodes.getX(p2) - nodes.getX(p0)) * CURVE_TENSION / 6.0;
+            splineControls[offset + 1] = nodes.getY(p1) + (nodes.getY(p2) - nodes.getY(p0)) * CURVE_TENSION / 6.0;
+            splineControls[offset + 2] = nodes.getX(p2) - (nodes.getX(p3) - nodes.getX(p1)) * CURVE_TENSION / 6.0;
+            splineControls[offset + 3] = nodes.getY(p2) - (nodes.getY(p3) - nodes.getY(p1)) * CURVE_TENSION / 6.0;
+        }
+    }
+
+    /**
+     * Project the control points of the curve from the point with the given ordinal to the next one.
+     * Both end points must already be projected, their tile heights are interpolated for the control points.
+     *
+     * @return whether both control points are on the canvas
+     */
+    private boolean projectControls(RouteSnapshot nodes, int ordinal)
+    {
+        int offset = ordinal * 4;
+        if (controlEpochs[ordinal] != projectionEpoch)
+        {
+            controlEpochs[ordinal] = projectionEpoch;
+            int fromHeight = tileHeights[nodes.getPointNodeIndex(ordinal)];
+            int toHeight = tileHeights[nodes.getPointNodeIndex(ordinal + 1)];
+            projectControl(offset, fromHeight + (toHeight - fromHeight) / 3);
+            projectControl(offset + 2, fromHeight + (toHeight - fromHeight) * 2 / 3);
+        }
+        return controlCanvas[offset] != OFF_CANVAS && controlCanvas[offset + 2] != OFF_CANVAS;
+    }
+
+    private void projectControl(int offset, int height)
+    {
+        // Same conversion as LocalPoint.fromWorld, kept fractional so the curve doesn't snap to tile centres
+        int localX = (int) Math.round((splineControls[offset] - client.getBaseX()) * Perspective.LOCAL_TILE_SIZE) + Perspective.LOCAL_HALF_TILE_SIZE;
+        int localY = (int) Math.round((splineControls[offset + 1] - client.getBaseY()) * Perspective.LOCAL_TILE_SIZE) + Perspective.LOCAL_HALF_TILE_SIZE;
+        Point canvas = Perspective.localToCanvas(client, localX, localY, height);
+        controlCanvas[offset] = canvas != null ? canvas.getX() : OFF_CANVAS;
+        controlCanvas[offset + 1] = canvas != null ? canvas.getY() : 0;
+    }
+
+    private void drawRouteSegments(Graphics2D g, RouteSnapshot nodes, int pathLength, boolean useCurves)
+    {
+        if (pathLength < 2)
+        {
+            return;
+        }
+        lineBatches.reset();
+        for (int i = 1; i < pathLength; i++)
+        {
+            Color color = segmentColors[i - 1];
             if (color == null)
             {
                 continue;
             }
 
-            Point from = points.get(i - 1);
-            Point to = points.get(i);
-            Point previous = i > 1 ? points.get(i - 2) : null;
-            Point next = (i + 1 < points.size()) ? points.get(i + 1) : null;
+            // Continue the batch's current subpath when this segment starts where its last one ended
+            PathBatch batch = lineBatches.get(color);
+            if (batch.lastIndex != i - 1)
+            {
+                batch.path.moveTo(pathXs[i - 1], pathYs[i - 1]);
+            }
+            batch.lastIndex = i;
 
-            g.setColor(color);
-            if (useCurves)
+            // Connected path entries are consecutive points, so the curve starting at the first one applies
+            int ordinal = pathOrdinals[i - 1];
+            if (useCurves && projectControls(nodes, ordinal))
             {
-                drawCurvedSegment(g, previous, from, to, next);
+                int offset = ordinal * 4;
+                batch.path.curveTo(controlCanvas[offset], controlCanvas[offset + 1],
+                    controlCanvas[offset + 2], controlCanvas[offset + 3], pathXs[i], pathYs[i]);
             }
             else
             {
-                g.drawLine(from.getX(), from.getY(), to.getX(), to.getY());
+                batch.path.lineTo(pathXs[i], pathYs[i]);
             }
         }
+        lineBatches.draw(g);
     }
 
-    private void drawCurvedSegment(Graphics2D g, Point previous, Point from, Point to, Point next)
+    private void addDirectionArrow(Path2D path, int fromX, int fromY, int toX, int toY, float lineWidth)
     {
-        Point p0 = previous != null ? previous : from;
-        Point p1 = from;
-        Point p2 = to;
-        Point p3 = next != null ? next : to;
-
-        double tension = 0.85; // 0 -> straight lines, 1 -> stronger curves
-        double c1x = p1.getX() + (p2.getX() - p0.getX()) * tension / 6.0;
-        double c1y = p1.getY() + (p2.getY() - p0.getY()) * tension / 6.0;
-        double c2x = p2.getX() - (p3.getX() - p1.getX()) * tension / 6.0;
-        double c2y = p2.getY() - (p3.getY() - p1.getY()) * tension / 6.0;
-
-        Path2D path = new Path2D.Double();
-        path.moveTo(p1.getX(), p1.getY());
-        path.curveTo(c1x, c1y, c2x, c2y, p2.getX(), p2.getY());
-        g.draw(path);
-    }
-
-    private void drawDirectionArrow(Graphics2D g, Point from, Point to, float lineWidth)
-    {
-        double dx = to.getX() - from.getX();
-        double dy = to.getY() - from.getY();
+        double dx = toX - fromX;
+        double dy = toY - fromY;
         if (dx == 0 && dy == 0)
         {
             return;
         }
 
         double angle = Math.atan2(dy, dx);
-        int baseX = from.getX();
-        int baseY = from.getY();
+        int baseX = fromX;
+        int baseY = fromY;
         int arrowLength = Math.max(10, Math.round(8 + lineWidth * 2));
         int arrowTipX = (int) Math.round(baseX + Math.cos(angle) * arrowLength);
         int arrowTipY = (int) Math.round(baseY + Math.sin(angle) * arrowLength);
 
-        g.drawLine(baseX, baseY, arrowTipX, arrowTipY);
+        path.moveTo(baseX, baseY);
+        path.lineTo(arrowTipX, arrowTipY);
 
         double headAngle = Math.toRadians(25);
         int arrowHeadSize = Math.max(6, Math.round(4 + lineWidth));
@@ -273,7 +420,64 @@ public class RouteOverlay extends Overlay
         int rightX = (int) Math.round(arrowTipX - Math.cos(angle + headAngle) * arrowHeadSize);
         int rightY = (int) Math.round(arrowTipY - Math.sin(angle + headAngle) * arrowHeadSize);
 
-        g.drawLine(arrowTipX, arrowTipY, leftX, leftY);
-        g.drawLine(arrowTipX, arrowTipY, rightX, rightY);
+        path.moveTo(leftX, leftY);
+        path.lineTo(arrowTipX, arrowTipY);
+        path.lineTo(rightX, rightY);
+    }
+
+    private static class PathBatch
+    {
+        final Path2D.Float path = new Path2D.Float();
+        Color color;
+        int lastIndex;
+    }
+
+    /**
+     * Paths grouped by color. Paths are reset rather than reallocated, so their buffers are reused between frames.
+     */
+    private static class PathBatches
+    {
+        private final List<PathBatch> batches = new ArrayList<>();
+        private int count;
+
+        void reset()
+        {
+            for (int i = 0; i < count; i++)
+            {
+                batches.get(i).path.reset();
+            }
+            count = 0;
+        }
+
+        PathBatch get(Color color)
+        {
+            // Routes use a handful of lap colors, a linear scan beats hashing here
+            for (int i = 0; i < count; i++)
+            {
+                PathBatch batch = batches.get(i);
+                if (batch.color.equals(color))
+                {
+                    return batch;
+                }
+            }
+            if (count == batches.size())
+            {
+                batches.add(new PathBatch());
+            }
+            PathBatch batch = batches.get(count++);
+            batch.color = color;
+            batch.lastIndex = -1;
+            return batch;
+        }
+
+        void draw(Graphics2D g)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                PathBatch batch = batches.get(i);
+                g.setColor(batch.color);
+                g.draw(batch.path);
+            }
+        }
     }
 }
@@ -0,0 +1,134 @@
+package com.barracudaroutes.managers;
+
+import com.barracudaroutes.model.Route;
+import com.barracudaroutes.model.routenodes.LapDividerNode;
+import com.barracudaroutes.model.routenodes.PointNode;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RouteBinaryCodecTest
+{
+    @Test
+    public void roundTrip() throws IOException
+    {
+        Route route = TestRoutes.sample();
+        byte[] data = RouteBinaryCodec.write(route);
+
+        assertTrue(RouteBinaryCodec.isBinaryRoute(data));
+        Route read = RouteBinaryCodec.read(data);
+        TestRoutes.assertSameRoute(route, read);
+        assertEquals(route.getFileUuid(), read.getFileUuid());
+    }
+
+    @Test
+    public void roundTripWithoutUuid() throws IOException
+    {
+        Route route = TestRoutes.sample();
+        route.setDescription(null);
+
+        Route read = RouteBinaryCodec.read(RouteBinaryCodec.write(route, false));
+        TestRoutes.assertSameRoute(route, read);
+        assertNull(read.getFileUuid());
+    }
+
+    @Test
+    public void roundTripEmptyRoute() throws IOException
+    {
+        Route route = new Route("Empty", null, null);
+
+        TestRoutes.assertSameRoute(route, RouteBinaryCodec.read(RouteBinaryCodec.write(route)));
+    }
+
+    @Test
+    public void roundTripLongRun() throws IOException
+    {
+        Route route = new Route("Long", null, "Jubbly Jive");
+        for (int i = 0; i < 5000; i++)
+        {
+            route.addNode(new PointNode(3000 + i % 700, 3000 + i / 7, 0));
+        }
+
+        TestRoutes.assertSameNodes(route, RouteBinaryCodec.read(RouteBinaryCodec.write(route)));
+    }
+
+    @Test
+    public void rejectsTruncatedData() throws IOException
+    {
+        byte[] data = RouteBinaryCodec.write(TestRoutes.sample());
+        for (int length = 0; length < data.length; length++)
+        {
+            assertUnreadable(Arrays.copyOf(data, length));
+        }
+    }
+
+    @Test
+    public void rejectsCorruptData() throws IOException
+    {
+        byte[] data = RouteBinaryCodec.write(TestRoutes.sample());
+        for (int i = 0; i < data.length; i++)
+        {
+            byte[] corrupt = data.clone();
+            corrupt[i] ^= 0x10;
+            assertUnreadable(corrupt);
+        }
+    }
+
+    @Test
+    public void rejectsOtherData()
+    {
+        assertFalse(RouteBinaryCodec.isBinaryRoute("{\"name\":\"x\"}".getBytes()));
+        assertUnreadable("{\"name\":\"x\"}".getBytes());
+    }
+
+    @Test
+    public void refusesPlanesItCantHold()
+    {
+        Route route = new Route("Plane", null, null);
+        route.addNode(new PointNode(3200, 3200, -1));
+        assertUnwritable(route);
+    }
+
+    @Test
+    public void refusesLapNumbersItCantHold() throws IOException
+    {
+        Route route = new Route("Laps", null, null);
+        route.addNode(new LapDividerNode((1 << 29) - 1));
+        route.addNode(new LapDividerNode(-(1 << 29)));
+        TestRoutes.assertSameNodes(route, RouteBinaryCodec.read(RouteBinaryCodec.write(route)));
+
+        route.addNode(new LapDividerNode(1 << 29));
+        assertUnwritable(route);
+    }
+
+    private static void assertUnreadable(byte[] data)
+    {
+        try
+        {
+            RouteBinaryCodec.read(data);
+            fail("Read " + data.length + " bytes of damaged data as a route");
+        }
+        catch (IOException expected)
+        {
+        }
+    }
+
+    private static void assertUnwritable(Route route)
+    {
+        try
+        {
+            RouteBinaryCodec.write(route);
+            fail("Wrote a route the binary format can't hold");
+        }
+        catch (IOException expected)
+        {
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.barracudaroutes.managers;
+
+import com.barracudaroutes.model.Route;
+import com.barracudaroutes.model.routenodes.PointNode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class RouteJournalTest
+{
+    private static final int RECORD_SIZE = 14;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysAppendedNodes() throws IOException
+    {
+        Route route = TestRoutes.sample();
+        Path path = writeJournal(route, 0);
+
+        Route replayed = new Route(route.getName(), null, route.getTrialName());
+        assertEquals(route.getNodeCount(), RouteJournal.replay(path, replayed));
+        TestRoutes.assertSameNodes(route, replayed);
+    }
+
+    @Test
+    public void skipsNodesTheRouteFileHas() throws IOException
+    {
+        Route route = TestRoutes.sample();
+        Path path = writeJournal(route, 0);
+
+        Route saved = copyOf(route, 4);
+        assertEquals(route.getNodeCount() - 4, RouteJournal.replay(path, saved));
+        TestRoutes.assertSameNodes(route, saved);
+    }
+
+    @Test
+    public void ignoresTornRecord() throws IOException
+    {
+        Route route = TestRoutes.sample();
+        Path path = writeJournal(route, 0);
+        byte[] data = Files.readAllBytes(path);
+        for (int cut = 1; cut < RECORD_SIZE; cut++)
+        {
+            Files.write(path, Arrays.copyOf(data, data.length - cut));
+
+            Route replayed = new Route(route.getName(), null, route.getTrialName());
+            assertEquals(route.getNodeCount() - 1, RouteJournal.replay(path, replayed));
+            TestRoutes.assertSameNodes(copyOf(route, route.getNodeCount() - 1), replayed);
+        }
+    }
+
+    @Test
+    public void stopsAtUnknownRecord() throws IOException
+    {
+        Route route = TestRoutes.sample();
+        Path path = writeJournal(route, 0);
+        byte[] data = Files.readAllBytes(path);
+        data[3 * RECORD_SIZE + 4] = 99; // Type of the fourth record
+        Files.write(path, data);
+
+        Route replayed = new Route(route.getName(), null, route.getTrialName());
+        assertEquals(3, RouteJournal.replay(path, replayed));
+        TestRoutes.assertSameNodes(copyOf(route, 3), replayed);
+    }
+
+    @Test
+    public void stopsAtGap() throws IOException
+    {
+        Route route = TestRoutes.sample();
+        Path path = writeJournal(route, 0);
+        byte[] data = Files.readAllBytes(path);
+        // Drop the third record, so the journal skips from node 2 to 3
+        byte[] gap = new byte[data.length - RECORD_SIZE];
+        System.arraycopy(data, 0, gap, 0, 2 * RECORD_SIZE);
+        System.arraycopy(data, 3 * RECORD_SIZE, gap, 2 * RECORD_SIZE, gap.length - 2 * RECORD_SIZE);
+        Files.write(path, gap);
+
+        Route replayed = new Route(route.getName(), null, route.getTrialName());
+        assertEquals(2, RouteJournal.replay(path, replayed));
+        TestRoutes.assertSameNodes(copyOf(route, 2), replayed);
+    }
+
+    @Test
+    public void replaysNothingAfterTruncate() throws IOException
+    {
+        Route route = TestRoutes.sample();
+        Path path = folder.getRoot().toPath().resolve("route" + RouteJournal.SUFFIX);
+        RouteJournal journal = RouteJournal.create(path);
+        journal.append(route.getSnapshot(), 0);
+        journal.truncate();
+        route.addNode(new PointNode(3210, 3210, 0));
+        journal.append(route.getSnapshot(), route.getNodeCount() - 1);
+        journal.close();
+
+        Route saved = copyOf(route, route.getNodeCount() - 1);
+        assertEquals(1, RouteJournal.replay(path, saved));
+        TestRoutes.assertSameNodes(route, saved);
+        assertEquals(RECORD_SIZE, Files.size(path));
+    }
+
+    @Test
+    public void replaysEmptyJournal() throws IOException
+    {
+        Path path = folder.newFile("empty" + RouteJournal.SUFFIX).toPath();
+        Files.write(path, new byte[0], StandardOpenOption.TRUNCATE_EXISTING);
+
+        assertEquals(0, RouteJournal.replay(path, new Route("Empty", null, null)));
+    }
+
+    private Path writeJournal(Route route, int fromIndex) throws IOException
+    {
+        Path path = folder.getRoot().toPath().resolve("route" + RouteJournal.SUFFIX);
+        RouteJournal journal = RouteJournal.create(path);
+        try
+        {
+            journal.append(route.getSnapshot(), fromIndex);
+        }
+        finally
+        {
+            journal.close();
+        }
+        assertEquals((route.getNodeCount() - fromIndex) * RECORD_SIZE, Files.size(path));
+        return path;
+    }
+
+    private static Route copyOf(Route route, int nodeCount)
+    {
+        Route copy = new Route(route.getName(), route.getDescription(), route.getTrialName());
+        for (int i = 0; i < nodeCount; i++)
+        {
+            copy.addNode(route.getNode(i));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,66 @@
+package com.barracudaroutes.managers;
+
+import com.barracudaroutes.model.Route;
+import com.google.gson.JsonParseException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RouteJsonCodecTest
+{
+    @Test
+    public void roundTrip() throws IOException
+    {
+        Route route = TestRoutes.sample();
+
+        Route read = RouteJsonCodec.fromJson(RouteJsonCodec.toJson(route, false));
+        TestRoutes.assertSameRoute(route, read);
+        assertEquals(route.getFileUuid(), read.getFileUuid());
+    }
+
+    @Test
+    public void roundTripPrettyPrinted() throws IOException
+    {
+        Route route = TestRoutes.sample();
+        route.setDescription(null);
+
+        TestRoutes.assertSameRoute(route, RouteJsonCodec.readImport(new StringReader(RouteJsonCodec.toJson(route, true))));
+    }
+
+    @Test
+    public void rejectsTruncatedJson()
+    {
+        String json = RouteJsonCodec.toJson(TestRoutes.sample(), false);
+        for (int length = 0; length < json.length(); length++)
+        {
+            try
+            {
+                RouteJsonCodec.fromJson(json.substring(0, length));
+                fail("Read truncated JSON as a route: " + json.substring(0, length));
+            }
+            catch (IOException | JsonParseException expected)
+            {
+            }
+        }
+    }
+
+    @Test
+    public void reportsWhereImportsBreakLimits() throws IOException
+    {
+        String json = "{\"name\":\"x\",\"route\":[{\"type\":\"point\",\"x\":3200,\"y\":3200,\"plane\":7}]}";
+        try
+        {
+            RouteJsonCodec.readImport(new StringReader(json));
+            fail("Imported a point on plane 7");
+        }
+        catch (JsonParseException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains("$.route[0]"));
+        }
+    }
+}
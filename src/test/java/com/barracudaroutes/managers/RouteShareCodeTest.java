@@ -0,0 +1,89 @@
+package com.barracudaroutes.managers;
+
+import com.barracudaroutes.model.Route;
+import com.barracudaroutes.model.routenodes.PointNode;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Base64;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RouteShareCodeTest
+{
+    @Test
+    public void roundTrip() throws IOException
+    {
+        Route route = TestRoutes.sample();
+        String code = RouteShareCode.encode(route);
+
+        assertTrue(RouteShareCode.isShareCode(code));
+        Route read = RouteShareCode.decode(code);
+        TestRoutes.assertSameRoute(route, read);
+        assertNull("share codes leave out the UUID", read.getFileUuid());
+    }
+
+    @Test
+    public void ignoresWhitespace() throws IOException
+    {
+        Route route = TestRoutes.sample();
+        String code = RouteShareCode.encode(route);
+        String wrapped = " " + code.substring(0, 10) + "\n" + code.substring(10) + "\n";
+
+        TestRoutes.assertSameRoute(route, RouteShareCode.decode(wrapped));
+    }
+
+    @Test
+    public void tellsJsonApart()
+    {
+        assertFalse(RouteShareCode.isShareCode("  {\"name\":\"x\"}"));
+        assertFalse(RouteShareCode.isShareCode("   "));
+    }
+
+    @Test
+    public void rejectsTruncatedCodes() throws IOException
+    {
+        String code = RouteShareCode.encode(TestRoutes.sample());
+        for (int length = 0; length < code.length(); length++)
+        {
+            assertUndecodable(code.substring(0, length));
+        }
+    }
+
+    @Test
+    public void rejectsCorruptCodes() throws IOException
+    {
+        byte[] data = Base64.getUrlDecoder().decode(RouteShareCode.encode(TestRoutes.sample()));
+        for (int i = 0; i < data.length; i++)
+        {
+            byte[] corrupt = data.clone();
+            corrupt[i] ^= 0x10;
+            assertUndecodable(Base64.getUrlEncoder().withoutPadding().encodeToString(corrupt));
+        }
+        assertUndecodable("not a share code!");
+    }
+
+    @Test
+    public void rejectsRoutesOutsideTheLimits() throws IOException
+    {
+        Route route = new Route("Far away", null, null);
+        route.addNode(new PointNode(40000, 1, 0));
+
+        assertUndecodable(RouteShareCode.encode(route));
+    }
+
+    private static void assertUndecodable(String code)
+    {
+        try
+        {
+            RouteShareCode.decode(code);
+            fail("Decoded a damaged share code: " + code);
+        }
+        catch (IOException expected)
+        {
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.barracudaroutes.managers;
+
+import com.barracudaroutes.model.Route;
+import com.barracudaroutes.model.RouteSnapshot;
+import com.barracudaroutes.model.routenodes.LapDividerNode;
+import com.barracudaroutes.model.routenodes.PointNode;
+
+import java.awt.Color;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Routes and assertions shared by the route format tests
+ */
+final class TestRoutes
+{
+    private TestRoutes()
+    {
+    }
+
+    /**
+     * A route with laps, a custom lap color, plane changes and steps in every direction
+     */
+    static Route sample()
+    {
+        Route route = new Route("Sample", "Two laps round the island", "Jubbly Jive");
+        route.setFileUuid(UUID.fromString("4f6c9e0a-1b2c-4d3e-8f40-5a6b7c8d9e0f"));
+        route.addNode(new LapDividerNode(1));
+        route.addNode(new PointNode(3200, 3200, 0));
+        route.addNode(new PointNode(3201, 3199, 0));
+        route.addNode(new PointNode(3150, 3260, 0));
+        route.addNode(new PointNode(3150, 3260, 1));
+        route.addNode(new PointNode(3149, 3261, 1));
+        route.addNode(new LapDividerNode(2, new Color(10, 20, 30, 128)));
+        route.addNode(new PointNode(3300, 3100, 0));
+        route.addNode(new PointNode(2900, 3400, 3));
+        return route;
+    }
+
+    static void assertSameNodes(Route expected, Route actual)
+    {
+        RouteSnapshot want = expected.getSnapshot();
+        RouteSnapshot got = actual.getSnapshot();
+        assertEquals("node count", want.getNodeCount(), got.getNodeCount());
+        for (int i = 0; i < want.getNodeCount(); i++)
+        {
+            assertEquals("lap divider at " + i, want.isLapDivider(i), got.isLapDivider(i));
+            if (want.isLapDivider(i))
+            {
+                assertEquals("lap number at " + i, want.getLapNumber(i), got.getLapNumber(i));
+                assertEquals("lap color at " + i, ((LapDividerNode) want.getNode(i)).getColor(),
+                    ((LapDividerNode) got.getNode(i)).getColor());
+            }
+            else
+            {
+                assertEquals("x at " + i, want.getX(i), got.getX(i));
+                assertEquals("y at " + i, want.getY(i), got.getY(i));
+                assertEquals("plane at " + i, want.getPlane(i), got.getPlane(i));
+            }
+        }
+    }
+
+    static void assertSameRoute(Route expected, Route actual)
+    {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getDescription(), actual.getDescription());
+        assertEquals(expected.getTrialName(), actual.getTrialName());
+        assertSameNodes(expected, actual);
+    }
+}
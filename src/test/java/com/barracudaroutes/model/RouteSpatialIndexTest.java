@@ -0,0 +1,96 @@
+package com.barracudaroutes.model;
+
+import com.barracudaroutes.model.routenodes.LapDividerNode;
+import com.barracudaroutes.model.routenodes.PointNode;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class RouteSpatialIndexTest
+{
+    @Test
+    public void findsNearestTile()
+    {
+        Route route = new Route("Nearest", null, null);
+        route.addNode(new LapDividerNode(1));
+        route.addNode(new PointNode(3200, 3200, 0)); // 1
+        route.addNode(new PointNode(3210, 3200, 0)); // 2
+        route.addNode(new PointNode(3205, 3203, 1)); // 3, other plane
+        route.addNode(new PointNode(3230, 3230, 0)); // 4
+        RouteSpatialIndex index = route.getSnapshot().getSpatialIndex();
+
+        assertEquals(1, index.findNearest(3201, 3201, 0, 100));
+        assertEquals(2, index.findNearest(3209, 3202, 0, 100));
+        assertEquals(3, index.findNearest(3205, 3203, 1, 100));
+        assertEquals(4, index.findNearest(3300, 3300, 0, 100));
+    }
+
+    @Test
+    public void breaksTiesByNodeIndex()
+    {
+        Route route = new Route("Ties", null, null);
+        route.addNode(new PointNode(3210, 3200, 0));
+        route.addNode(new PointNode(3200, 3200, 0));
+        route.addNode(new PointNode(3210, 3200, 0));
+
+        assertEquals(0, route.getSnapshot().getSpatialIndex().findNearest(3205, 3200, 0, 10));
+    }
+
+    @Test
+    public void respectsMaxDistance()
+    {
+        Route route = new Route("Distance", null, null);
+        route.addNode(new PointNode(3200, 3200, 0));
+        RouteSpatialIndex index = route.getSnapshot().getSpatialIndex();
+
+        assertEquals(0, index.findNearest(3210, 3195, 0, 10));
+        assertEquals(-1, index.findNearest(3211, 3195, 0, 10));
+        assertEquals(-1, index.findNearest(3200, 3200, 1, 10));
+        assertEquals(-1, new Route("Empty", null, null).getSnapshot().getSpatialIndex().findNearest(3200, 3200, 0, 10));
+    }
+
+    @Test
+    public void matchesBruteForce()
+    {
+        Random random = new Random(7);
+        Route route = new Route("Random", null, null);
+        for (int i = 0; i < 2000; i++)
+        {
+            route.addNode(new PointNode(3000 + random.nextInt(400), 3000 + random.nextInt(400), random.nextInt(2)));
+        }
+        RouteSnapshot nodes = route.getSnapshot();
+        RouteSpatialIndex index = nodes.getSpatialIndex();
+
+        for (int query = 0; query < 500; query++)
+        {
+            int x = 2900 + random.nextInt(600);
+            int y = 2900 + random.nextInt(600);
+            int plane = random.nextInt(2);
+            int maxDistance = random.nextInt(3) == 0 ? 1000 : random.nextInt(20);
+            assertEquals("nearest to " + x + ", " + y + ", " + plane + " within " + maxDistance,
+                bruteForceNearest(nodes, x, y, plane, maxDistance), index.findNearest(x, y, plane, maxDistance));
+        }
+    }
+
+    private static int bruteForceNearest(RouteSnapshot nodes, int x, int y, int plane, int maxDistance)
+    {
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < nodes.getNodeCount(); i++)
+        {
+            if (!nodes.isPoint(i) || nodes.getPlane(i) != plane)
+            {
+                continue;
+            }
+            int distance = Math.max(Math.abs(nodes.getX(i) - x), Math.abs(nodes.getY(i) - y));
+            if (distance <= maxDistance && distance < bestDistance)
+            {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,487 @@
+package com.barracudaroutes.model;
+
+import com.barracudaroutes.model.routenodes.LapDividerNode;
+import com.barracudaroutes.model.routenodes.PointNode;
+import com.barracudaroutes.model.routenodes.RouteNode;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RouteTest
+{
+    @Test
+    public void storesNodesInOrder()
+    {
+        Route route = new Route("Packed", null, null);
+        List<RouteNode> expected = Arrays.asList(
+            new LapDividerNode(1),
+            new PointNode(3200, 3200, 0),
+            new PointNode(3201, 3202, 1),
+            new LapDividerNode(2, Color.RED),
+            new PointNode(3150, 3260, 3));
+        for (RouteNode node : expected)
+        {
+            route.addNode(node);
+        }
+
+        assertNodes(expected, route);
+        assertEquals(3, route.getPointNodes().size());
+        assertEquals(3201, route.getPointNodes().get(1).getX());
+    }
+
+    @Test
+    public void insertsRemovesAndMovesNodes()
+    {
+        Route route = new Route("Edits", null, null);
+        List<RouteNode> expected = new ArrayList<>();
+        for (int i = 0; i < 40; i++)
+        {
+            // Past the initial capacity, so the storage grows along the way
+            RouteNode node = new PointNode(3000 + i, 3000 - i, i % 4);
+            route.addNode(node);
+            expected.add(node);
+        }
+
+        route.insertNode(0, new LapDividerNode(1));
+        expected.add(0, new LapDividerNode(1));
+        route.insertNode(20, new PointNode(1, 2, 3));
+        expected.add(20, new PointNode(1, 2, 3));
+        assertNodes(expected, route);
+
+        assertEquals(describe(expected.get(5)), describe(route.removeNode(5)));
+        expected.remove(5);
+        route.removeNodes(10, 15);
+        expected.subList(10, 15).clear();
+        assertNodes(expected, route);
+
+        route.moveNode(2, 30);
+        expected.add(30, expected.remove(2));
+        route.moveNode(25, 1);
+        expected.add(1, expected.remove(25));
+        assertNodes(expected, route);
+    }
+
+    @Test
+    public void setsPoints()
+    {
+        Route route = new Route("Set", null, null);
+        route.addNode(new LapDividerNode(1));
+        route.addNode(new PointNode(3200, 3200, 0));
+
+        route.setPoint(1, 3300, 3100, 2);
+        assertEquals(3300, route.getX(1));
+        assertEquals(3100, route.getY(1));
+        assertEquals(2, route.getPlane(1));
+        try
+        {
+            route.setPoint(0, 1, 1, 0);
+            fail("Set the coordinates of a lap divider");
+        }
+        catch (IllegalArgumentException expected)
+        {
+        }
+    }
+
+    @Test
+    public void clears()
+    {
+        Route route = new Route("Clear", null, null);
+        route.addNode(new LapDividerNode(1));
+        route.addNode(new PointNode(3200, 3200, 0));
+
+        route.clear();
+        assertEquals(0, route.getNodeCount());
+        route.addNode(new PointNode(3300, 3300, 1));
+        assertNodes(Arrays.asList(new PointNode(3300, 3300, 1)), route);
+    }
+
+    @Test
+    public void tracksLapsAcrossDividers()
+    {
+        Route route = new Route("Laps", null, null);
+        List<RouteNode> expected = new ArrayList<>(Arrays.asList(
+            new LapDividerNode(1),
+            new PointNode(3200, 3200, 0),
+            new PointNode(3201, 3200, 0),
+            new LapDividerNode(2),
+            new PointNode(3202, 3200, 0),
+            new PointNode(3203, 3200, 0),
+            new LapDividerNode(3),
+            new PointNode(3204, 3200, 0)));
+        for (RouteNode node : expected)
+        {
+            route.addNode(node);
+        }
+        assertLapIndex(expected, route);
+        assertEquals(2, route.getLapAt(5));
+        assertEquals(6, route.getNextLapDividerIndex(3));
+        assertEquals(3, route.getSnapshot().getHighestLap());
+
+        // Split lap 1 with a new lap 4
+        route.insertNode(2, new LapDividerNode(4));
+        expected.add(2, new LapDividerNode(4));
+        assertLapIndex(expected, route);
+        assertEquals(4, route.getLapAt(3));
+        assertEquals(4, route.getSnapshot().getHighestLap());
+
+        // Removing lap 2's divider merges its points into the lap before
+        route.removeNode(4);
+        expected.remove(4);
+        assertLapIndex(expected, route);
+        assertEquals(4, route.getLapAt(5));
+        assertEquals(-1, route.getLapDividerIndex(2));
+
+        // Dragging lap 4's divider past lap 3's hands its points back to lap 1
+        route.moveNode(2, 6);
+        expected.add(6, expected.remove(2));
+        assertLapIndex(expected, route);
+        assertEquals(1, route.getLapAt(4));
+        assertEquals(3, route.getLapAt(5));
+        assertEquals(4, route.getLapAt(7));
+
+        // Deleting a lap the way the edit panel does removes its divider and points
+        int lapStart = route.getLapDividerIndex(4);
+        route.removeNodes(lapStart, route.getNextLapDividerIndex(lapStart));
+        expected.subList(lapStart, 8).clear();
+        assertLapIndex(expected, route);
+        assertEquals(3, route.getSnapshot().getHighestLap());
+    }
+
+    @Test
+    public void findsRemainingDividerOfRepeatedLap()
+    {
+        Route route = new Route("Repeated", null, null);
+        List<RouteNode> expected = new ArrayList<>(Arrays.asList(
+            new LapDividerNode(1),
+            new PointNode(3200, 3200, 0),
+            new LapDividerNode(2, Color.RED),
+            new PointNode(3201, 3200, 0),
+            new LapDividerNode(2, Color.BLUE),
+            new PointNode(3202, 3200, 0)));
+        for (RouteNode node : expected)
+        {
+            route.addNode(node);
+        }
+        assertEquals(2, route.getLapDividerIndex(2));
+        assertEquals(Color.RED, route.getLapColor(2));
+
+        route.removeNodes(2, 4);
+        expected.subList(2, 4).clear();
+        assertLapIndex(expected, route);
+        assertEquals(2, route.getLapDividerIndex(2));
+        assertEquals(Color.BLUE, route.getLapColor(2));
+    }
+
+    @Test
+    public void setsLapColors()
+    {
+        Route route = new Route("Colors", null, null);
+        route.addNode(new LapDividerNode(1));
+        route.addNode(new PointNode(3200, 3200, 0));
+        route.addNode(new LapDividerNode(2, Color.RED));
+
+        route.setLapColor(1, Color.GREEN);
+        route.setLapColor(2, null);
+        route.setLapColor(5, Color.BLUE); // No such lap, ignored
+        assertEquals(Color.GREEN, route.getLapColor(1));
+        assertEquals(Color.GREEN, ((LapDividerNode) route.getNode(0)).getColor());
+        assertEquals(null, route.getLapColor(2));
+        assertEquals(null, route.getLapColor(5));
+        assertEquals(-1, route.getLapDividerIndex(5));
+    }
+
+    @Test
+    public void addsNodesInBulkWithOneSnapshot()
+    {
+        Route route = laps();
+        List<RouteNode> added = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+        {
+            added.add(i % 10 == 0 ? new LapDividerNode(3 + i / 10, i % 20 == 0 ? Color.BLUE : null) : new PointNode(3000 + i, 3000, i % 4));
+        }
+        Route oneByOne = laps();
+        for (RouteNode node : added)
+        {
+            oneByOne.addNode(node);
+        }
+        RouteSnapshot before = route.getSnapshot();
+        List<String> beforeNodes = describe(before);
+        // Versions come from one counter, so a route created just before shows how many the batch took
+        long probeVersion = new Route("Probe", null, null).getVersion();
+
+        route.addNodes(added);
+        assertEquals("versions published for the batch", probeVersion + 1, route.getVersion());
+        List<String> expected = describe(oneByOne.getSnapshot());
+        List<String> actual = describe(route.getSnapshot());
+        // Versions differ between the two routes, the rest must match
+        assertEquals(expected.subList(0, expected.size() - 1), actual.subList(0, actual.size() - 1));
+        assertEquals(oneByOne.getSnapshot().getHighestLap(), route.getSnapshot().getHighestLap());
+        assertLapIndex(route.getSnapshot());
+        assertEquals(beforeNodes, describe(before));
+
+        // An empty batch publishes nothing
+        RouteSnapshot after = route.getSnapshot();
+        route.addNodes(new ArrayList<>());
+        assertTrue(route.getSnapshot() == after);
+    }
+
+    @Test
+    public void keepsSnapshotsUnchangedByLaterEdits()
+    {
+        List<Consumer<Route>> edits = Arrays.asList(
+            route -> route.addNode(new PointNode(3300, 3300, 0)),
+            route -> route.addNode(new LapDividerNode(9, Color.BLUE)),
+            route -> route.insertNode(1, new PointNode(3300, 3300, 0)),
+            route -> route.insertNode(2, new LapDividerNode(9)),
+            route -> route.removeNode(0),
+            route -> route.removeNodes(2, 5),
+            route -> route.moveNode(3, 0),
+            route -> route.setPoint(1, 1, 2, 3),
+            route -> route.setLapColor(2, Color.GREEN),
+            Route::clear);
+        for (int i = 0; i < edits.size(); i++)
+        {
+            Route route = laps();
+            RouteSnapshot before = route.getSnapshot();
+            List<String> nodes = describe(before);
+
+            edits.get(i).accept(route);
+            assertEquals("nodes of the old snapshot after edit " + i, nodes, describe(before));
+            assertTrue("version after edit " + i, route.getVersion() > before.getVersion());
+            assertTrue("new snapshot after edit " + i, route.getSnapshot() != before);
+        }
+    }
+
+    @Test
+    public void keepsSnapshotsSharingStorageWithAppends()
+    {
+        // Appending points writes past the published size into the same arrays, without copying them first
+        Route route = laps();
+        RouteSnapshot first = route.getSnapshot();
+        List<String> firstNodes = describe(first);
+        route.addNode(new PointNode(3300, 3300, 0));
+        RouteSnapshot second = route.getSnapshot();
+        List<String> secondNodes = describe(second);
+
+        route.removeNode(route.getNodeCount() - 1);
+        route.addNode(new PointNode(1, 1, 1));
+        route.insertNode(0, new LapDividerNode(7));
+        for (int i = 0; i < 50; i++)
+        {
+            route.addNode(new PointNode(i, i, 0));
+        }
+
+        assertEquals(firstNodes, describe(first));
+        assertEquals(secondNodes, describe(second));
+        assertEquals(first.getNodeCount() + 1, second.getNodeCount());
+    }
+
+    @Test
+    public void publishesConsistentSnapshotsToOtherThreads() throws InterruptedException
+    {
+        Route route = laps();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try
+            {
+                long version = -1;
+                while (!done.get())
+                {
+                    RouteSnapshot nodes = route.getSnapshot();
+                    assertTrue("versions only go up", nodes.getVersion() >= version);
+                    version = nodes.getVersion();
+                    assertLapIndex(nodes);
+                }
+            }
+            catch (Throwable e)
+            {
+                failure.set(e);
+            }
+        });
+        reader.start();
+
+        Random random = new Random(3);
+        for (int i = 0; i < 5000 && failure.get() == null; i++)
+        {
+            int size = route.getNodeCount();
+            if (size > 0 && random.nextInt(4) == 0)
+            {
+                route.removeNode(random.nextInt(size));
+            }
+            else
+            {
+                route.insertNode(random.nextBoolean() ? size : random.nextInt(size + 1), randomNode(random));
+            }
+        }
+        done.set(true);
+        reader.join();
+        if (failure.get() != null)
+        {
+            throw new AssertionError("Reader saw an inconsistent snapshot", failure.get());
+        }
+    }
+
+    @Test
+    public void matchesListUnderRandomEdits()
+    {
+        Random random = new Random(11);
+        Route route = new Route("Random", null, null);
+        List<RouteNode> expected = new ArrayList<>();
+        for (int step = 0; step < 2000; step++)
+        {
+            int size = expected.size();
+            int op = random.nextInt(5);
+            if (op <= 1 || size == 0)
+            {
+                RouteNode node = randomNode(random);
+                int index = op == 0 ? size : random.nextInt(size + 1);
+                route.insertNode(index, node);
+                expected.add(index, node);
+            }
+            else if (op == 2)
+            {
+                int from = random.nextInt(size);
+                int to = Math.min(size, from + 1 + random.nextInt(3));
+                route.removeNodes(from, to);
+                expected.subList(from, to).clear();
+            }
+            else if (op == 3)
+            {
+                int from = random.nextInt(size);
+                int to = random.nextInt(size);
+                route.moveNode(from, to);
+                expected.add(to, expected.remove(from));
+            }
+            else if (expected.get(size - 1) instanceof PointNode)
+            {
+                route.setPoint(size - 1, step, step, 0);
+                expected.set(size - 1, new PointNode(step, step, 0));
+            }
+            assertNodes(expected, route);
+            assertLapIndex(expected, route);
+        }
+    }
+
+    private static RouteNode randomNode(Random random)
+    {
+        if (random.nextInt(5) == 0)
+        {
+            return new LapDividerNode(1 + random.nextInt(6), random.nextBoolean() ? new Color(random.nextInt()) : null);
+        }
+        return new PointNode(3000 + random.nextInt(100), 3000 + random.nextInt(100), random.nextInt(4));
+    }
+
+    private static void assertNodes(List<RouteNode> expected, Route route)
+    {
+        assertEquals("node count", expected.size(), route.getNodeCount());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            assertEquals("node " + i, describe(expected.get(i)), describe(route.getNode(i)));
+        }
+    }
+
+    private static Route laps()
+    {
+        Route route = new Route("Laps", null, null);
+        route.addNode(new LapDividerNode(1));
+        route.addNode(new PointNode(3200, 3200, 0));
+        route.addNode(new PointNode(3201, 3200, 0));
+        route.addNode(new LapDividerNode(2, Color.RED));
+        route.addNode(new PointNode(3202, 3200, 1));
+        route.addNode(new PointNode(3203, 3200, 1));
+        return route;
+    }
+
+    /**
+     * Check the route's lap lookups against a scan of the nodes
+     */
+    private static void assertLapIndex(List<RouteNode> expected, Route route)
+    {
+        assertNodes(expected, route);
+        assertLapIndex(route.getSnapshot());
+    }
+
+    /**
+     * Check the snapshot's lap lookups against a scan of its nodes
+     */
+    private static void assertLapIndex(RouteSnapshot nodes)
+    {
+        List<RouteNode> expected = nodes.getNodes();
+        int lap = 1;
+        int highest = 0;
+        for (int i = 0; i < expected.size(); i++)
+        {
+            if (expected.get(i) instanceof LapDividerNode)
+            {
+                lap = ((LapDividerNode) expected.get(i)).getLapNumber();
+                highest = Math.max(highest, lap);
+            }
+            assertEquals("lap at " + i, lap, nodes.getLapAt(i));
+
+            int next = i + 1;
+            while (next < expected.size() && !(expected.get(next) instanceof LapDividerNode))
+            {
+                next++;
+            }
+            assertEquals("next lap divider after " + i, next, nodes.getNextLapDividerIndex(i));
+        }
+        assertEquals("highest lap", highest, nodes.getHighestLap());
+
+        for (int number = 0; number <= highest + 1; number++)
+        {
+            int first = -1;
+            for (int i = 0; i < expected.size() && first < 0; i++)
+            {
+                if (expected.get(i) instanceof LapDividerNode && ((LapDividerNode) expected.get(i)).getLapNumber() == number)
+                {
+                    first = i;
+                }
+            }
+            assertEquals("divider of lap " + number, first, nodes.getLapDividerIndex(number));
+            assertEquals("color of lap " + number, first >= 0 ? ((LapDividerNode) expected.get(first)).getColor() : null,
+                nodes.getLapColor(number));
+        }
+    }
+
+    /**
+     * Describe every node of the snapshot along with the lap it is in, and the snapshot's lap lookups
+     */
+    private static List<String> describe(RouteSnapshot nodes)
+    {
+        List<String> described = new ArrayList<>();
+        for (int i = 0; i < nodes.getNodeCount(); i++)
+        {
+            described.add(describe(nodes.getNode(i)) + " in lap " + nodes.getLapAt(i) + " colored " + nodes.getLapColor(nodes.getLapAt(i))
+                + ", next lap at " + nodes.getNextLapDividerIndex(i));
+        }
+        for (int lap = 0; lap <= 10; lap++)
+        {
+            described.add("lap " + lap + " at " + nodes.getLapDividerIndex(lap));
+        }
+        described.add("version " + nodes.getVersion() + ", highest lap " + nodes.getHighestLap());
+        return described;
+    }
+
+    private static String describe(RouteNode node)
+    {
+        if (node instanceof PointNode)
+        {
+            PointNode point = (PointNode) node;
+            return "point " + point.getX() + ", " + point.getY() + ", " + point.getPlane();
+        }
+        LapDividerNode lapDivider = (LapDividerNode) node;
+        return "lap " + lapDivider.getLapNumber() + " " + lapDivider.getColor();
+    }
+}